@@ -292,6 +292,11 @@ public class EmergencyActivity extends Activity {
         sitePasswordField.setText( "" );
         progressView.setVisibility( View.VISIBLE );
         masterKey = new MPMasterKey( fullName, masterPassword );
+
+        // Derive the key up front; site password requests queued behind it share the result.
+        MPAlgorithm.Version version = (MPAlgorithm.Version) siteVersionButton.getTag();
+        if (version != null)
+            masterKey.deriveAsync( version, executor );
         updateSitePassword();
     }
 
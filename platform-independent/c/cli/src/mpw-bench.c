@@ -95,6 +95,40 @@ int main(int argc, char *const argv[]) {
     const double hmacSha256Speed = mpw_show_speed( startTime, iterations, "hmac-sha-256" );
     free( (void *)masterKey );
 
+    // Start site result, deriving the site key a second time
+    // The site result path before mpw_site_result_with_key: the site key is derived, then mpw_site_result derives it again.
+    iterations = 650000; /* tuned to ~10s on dev machine */
+    masterKey = mpw_master_key( fullName, masterPassword, MPAlgorithmVersionCurrent );
+    if (!masterKey) {
+        ftl( "Could not allocate master key: %s", strerror( errno ) );
+        abort();
+    }
+    mpw_time( &startTime );
+    for (int i = 1; i <= iterations; ++i) {
+        MPSiteKey siteKey = mpw_site_key( masterKey, siteName, siteCounter, keyPurpose, keyContext, MPAlgorithmVersionCurrent );
+        free( (void *)mpw_site_result(
+                masterKey, siteName, siteCounter, keyPurpose, keyContext, resultType, NULL, MPAlgorithmVersionCurrent ) );
+        free( (void *)siteKey );
+
+        if (modff( 100.f * i / iterations, &percent ) == 0)
+            fprintf( stderr, "\rsite result: iteration %d / %d (%.0f%%)..", i, iterations, percent );
+    }
+    const double siteResultSpeed = mpw_show_speed( startTime, iterations, "site result" );
+
+    // Start site result from the site key
+    // The site result path since: the site key is derived once and the result is encoded from it.
+    mpw_time( &startTime );
+    for (int i = 1; i <= iterations; ++i) {
+        MPSiteKey siteKey = mpw_site_key( masterKey, siteName, siteCounter, keyPurpose, keyContext, MPAlgorithmVersionCurrent );
+        free( (void *)mpw_site_result_with_key( masterKey, siteKey, resultType, NULL, MPAlgorithmVersionCurrent ) );
+        free( (void *)siteKey );
+
+        if (modff( 100.f * i / iterations, &percent ) == 0)
+            fprintf( stderr, "\rsite result with key: iteration %d / %d (%.0f%%)..", i, iterations, percent );
+    }
+    const double siteResultWithKeySpeed = mpw_show_speed( startTime, iterations, "site result with key" );
+    free( (void *)masterKey );
+
     // Start BCrypt
     // Similar to phase-one of mpw
     uint8_t bcrypt_rounds = 9;
@@ -145,6 +179,7 @@ int main(int argc, char *const argv[]) {
     fprintf( stdout, " - mpw is %f times slower than hmac-sha-256.\n", hmacSha256Speed / mpwSpeed );
     fprintf( stdout, " - mpw is %f times slower than bcrypt (rounds 10^%d).\n", bcrypt9Speed / mpwSpeed, bcrypt_rounds );
     fprintf( stdout, " - scrypt is %f times slower than bcrypt (rounds 10^%d).\n", bcrypt9Speed / scryptSpeed, bcrypt_rounds );
+    fprintf( stdout, " - a site result with key is %f times faster than a site result.\n", siteResultWithKeySpeed / siteResultSpeed );
 
     return 0;
 }
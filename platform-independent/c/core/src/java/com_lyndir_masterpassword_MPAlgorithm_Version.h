@@ -10,34 +10,42 @@ extern "C" {
 /*
  * Class:     com_lyndir_masterpassword_MPAlgorithm_Version
  * Method:    _masterKey
- * Signature: (Ljava/lang/String;[BI)[B
+ * Signature: (Ljava/lang/String;[BLjava/nio/ByteBuffer;I)Z
  */
-JNIEXPORT jbyteArray JNICALL Java_com_lyndir_masterpassword_MPAlgorithm_00024Version__1masterKey
-  (JNIEnv *, jobject, jstring, jbyteArray, jint);
+JNIEXPORT jboolean JNICALL Java_com_lyndir_masterpassword_MPAlgorithm_00024Version__1masterKey
+  (JNIEnv *, jobject, jstring, jbyteArray, jobject, jint);
 
 /*
  * Class:     com_lyndir_masterpassword_MPAlgorithm_Version
  * Method:    _siteKey
- * Signature: ([BLjava/lang/String;JILjava/lang/String;I)[B
+ * Signature: (Ljava/nio/ByteBuffer;Ljava/lang/String;JILjava/lang/String;I)[B
  */
 JNIEXPORT jbyteArray JNICALL Java_com_lyndir_masterpassword_MPAlgorithm_00024Version__1siteKey
-  (JNIEnv *, jobject, jbyteArray, jstring, jlong, jint, jstring, jint);
+  (JNIEnv *, jobject, jobject, jstring, jlong, jint, jstring, jint);
 
 /*
  * Class:     com_lyndir_masterpassword_MPAlgorithm_Version
  * Method:    _siteResult
- * Signature: ([B[BLjava/lang/String;JILjava/lang/String;ILjava/lang/String;I)Ljava/lang/String;
+ * Signature: (Ljava/nio/ByteBuffer;[BILjava/lang/String;I)Ljava/lang/String;
  */
 JNIEXPORT jstring JNICALL Java_com_lyndir_masterpassword_MPAlgorithm_00024Version__1siteResult
-  (JNIEnv *, jobject, jbyteArray, jbyteArray, jstring, jlong, jint, jstring, jint, jstring, jint);
+  (JNIEnv *, jobject, jobject, jbyteArray, jint, jstring, jint);
+
+/*
+ * Class:     com_lyndir_masterpassword_MPAlgorithm_Version
+ * Method:    _siteResults
+ * Signature: (Ljava/nio/ByteBuffer;[BII)[Ljava/lang/String;
+ */
+JNIEXPORT jobjectArray JNICALL Java_com_lyndir_masterpassword_MPAlgorithm_00024Version__1siteResults
+  (JNIEnv *, jobject, jobject, jbyteArray, jint, jint);
 
 /*
  * Class:     com_lyndir_masterpassword_MPAlgorithm_Version
  * Method:    _siteState
- * Signature: ([B[BLjava/lang/String;JILjava/lang/String;ILjava/lang/String;I)Ljava/lang/String;
+ * Signature: (Ljava/nio/ByteBuffer;[BILjava/lang/String;I)Ljava/lang/String;
  */
 JNIEXPORT jstring JNICALL Java_com_lyndir_masterpassword_MPAlgorithm_00024Version__1siteState
-  (JNIEnv *, jobject, jbyteArray, jbyteArray, jstring, jlong, jint, jstring, jint, jstring, jint);
+  (JNIEnv *, jobject, jobject, jbyteArray, jint, jstring, jint);
 
 /*
  * Class:     com_lyndir_masterpassword_MPAlgorithm_Version
@@ -50,10 +58,10 @@ JNIEXPORT jobject JNICALL Java_com_lyndir_masterpassword_MPAlgorithm_00024Versio
 /*
  * Class:     com_lyndir_masterpassword_MPAlgorithm_Version
  * Method:    _toID
- * Signature: ([B)Ljava/lang/String;
+ * Signature: (Ljava/nio/ByteBuffer;)Ljava/lang/String;
  */
 JNIEXPORT jstring JNICALL Java_com_lyndir_masterpassword_MPAlgorithm_00024Version__1toID
-  (JNIEnv *, jobject, jbyteArray);
+  (JNIEnv *, jobject, jobject);
 
 #ifdef __cplusplus
 }
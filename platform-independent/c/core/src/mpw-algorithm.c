@@ -105,10 +105,21 @@ const char *mpw_site_result(
 
     if (keyContext && !strlen( keyContext ))
         keyContext = NULL;
-    if (resultParam && !strlen( resultParam ))
-        resultParam = NULL;
 
     MPSiteKey siteKey = mpw_site_key( masterKey, siteName, siteCounter, keyPurpose, keyContext, algorithmVersion );
+    const char *siteResult = mpw_site_result_with_key( masterKey, siteKey, resultType, resultParam, algorithmVersion );
+    mpw_free( &siteKey, MPSiteKeySize );
+
+    return siteResult;
+}
+
+const char *mpw_site_result_with_key(
+        const MPMasterKey masterKey, const MPSiteKey siteKey,
+        const MPResultType resultType, const char *resultParam,
+        const MPAlgorithmVersion algorithmVersion) {
+
+    if (resultParam && !strlen( resultParam ))
+        resultParam = NULL;
 
     trc( "-- mpw_site_result (algorithm: %u)", algorithmVersion );
     trc( "resultType: %d (%s)", resultType, mpw_type_short_name( resultType ) );
@@ -182,10 +193,21 @@ const char *mpw_site_state(
 
     if (keyContext && !strlen( keyContext ))
         keyContext = NULL;
-    if (resultParam && !strlen( resultParam ))
-        resultParam = NULL;
 
     MPSiteKey siteKey = mpw_site_key( masterKey, siteName, siteCounter, keyPurpose, keyContext, algorithmVersion );
+    const char *siteState = mpw_site_state_with_key( masterKey, siteKey, resultType, resultParam, algorithmVersion );
+    mpw_free( &siteKey, MPSiteKeySize );
+
+    return siteState;
+}
+
+const char *mpw_site_state_with_key(
+        const MPMasterKey masterKey, const MPSiteKey siteKey,
+        const MPResultType resultType, const char *resultParam,
+        const MPAlgorithmVersion algorithmVersion) {
+
+    if (resultParam && !strlen( resultParam ))
+        resultParam = NULL;
 
     trc( "-- mpw_site_state (algorithm: %u)", algorithmVersion );
     trc( "resultType: %d (%s)", resultType, mpw_type_short_name( resultType ) );
@@ -56,6 +56,14 @@ const char *mpw_site_result(
         const MPResultType resultType, const char *resultParam,
         const MPAlgorithmVersion algorithmVersion);
 
+/** Generate a site result token from a site key previously derived with mpw_site_key.
+ * @param resultParam A parameter for the resultType.  For stateful result types, the output of mpw_site_state.
+ * @return A string (allocated) or NULL if the masterKey or siteKey is missing, the algorithm is unknown, or an algorithm error occurred. */
+const char *mpw_site_result_with_key(
+        const MPMasterKey masterKey, const MPSiteKey siteKey,
+        const MPResultType resultType, const char *resultParam,
+        const MPAlgorithmVersion algorithmVersion);
+
 /** Encrypt a stateful site token for persistence.
  * @param resultParam A parameter for the resultType.  For stateful result types, the desired mpw_site_result.
  * @return A string (allocated) or NULL if the masterKey, siteName or resultParam is missing, the algorithm is unknown, or an algorithm error occurred. */
@@ -65,6 +73,14 @@ const char *mpw_site_state(
         const MPResultType resultType, const char *resultParam,
         const MPAlgorithmVersion algorithmVersion);
 
+/** Encrypt a stateful site token for persistence using a site key previously derived with mpw_site_key.
+ * @param resultParam A parameter for the resultType.  For stateful result types, the desired mpw_site_result.
+ * @return A string (allocated) or NULL if the masterKey, siteKey or resultParam is missing, the algorithm is unknown, or an algorithm error occurred. */
+const char *mpw_site_state_with_key(
+        const MPMasterKey masterKey, const MPSiteKey siteKey,
+        const MPResultType resultType, const char *resultParam,
+        const MPAlgorithmVersion algorithmVersion);
+
 /** @return An identicon (static) that represents the user's identity. */
 const MPIdenticon mpw_identicon(
         const char *fullName, const char *masterPassword);
@@ -94,13 +94,24 @@ JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM* vm, void* reserved) {
     return JNI_VERSION_1_6;
 }
 
-/* native byte[] _masterKey(final String fullName, final byte[] masterPassword, final int algorithmVersion) */
-JNIEXPORT jbyteArray JNICALL Java_com_lyndir_masterpassword_MPAlgorithm_00024Version__1masterKey(JNIEnv *env, jobject obj,
-        jstring fullName, jbyteArray masterPassword, jint algorithmVersion) {
+static uint8_t *mpw_jni_direct_buffer(JNIEnv *env, jobject buffer, size_t minimumSize) {
 
-    if (!fullName || !masterPassword)
+    // Direct buffers are accessed in place; heap buffers have no address and are rejected.
+    if (!buffer || (*env)->GetDirectBufferCapacity( env, buffer ) < (jlong)minimumSize)
         return NULL;
 
+    return (*env)->GetDirectBufferAddress( env, buffer );
+}
+
+/* native boolean _masterKey(final String fullName, final byte[] masterPassword, final ByteBuffer masterKey,
+                             final int algorithmVersion) */
+JNIEXPORT jboolean JNICALL Java_com_lyndir_masterpassword_MPAlgorithm_00024Version__1masterKey(JNIEnv *env, jobject obj,
+        jstring fullName, jbyteArray masterPassword, jobject masterKey, jint algorithmVersion) {
+
+    uint8_t *masterKeyBuffer = mpw_jni_direct_buffer( env, masterKey, MPMasterKeySize );
+    if (!fullName || !masterPassword || !masterKeyBuffer)
+        return JNI_FALSE;
+
     const char *fullNameString = (*env)->GetStringUTFChars( env, fullName, NULL );
     jbyte *masterPasswordString = (*env)->GetByteArrayElements( env, masterPassword, NULL );
 
@@ -109,30 +120,28 @@ JNIEXPORT jbyteArray JNICALL Java_com_lyndir_masterpassword_MPAlgorithm_00024Ver
     (*env)->ReleaseByteArrayElements( env, masterPassword, masterPasswordString, JNI_ABORT );
 
     if (!masterKeyBytes)
-        return NULL;
+        return JNI_FALSE;
 
-    jbyteArray masterKey = (*env)->NewByteArray( env, (jsize)MPMasterKeySize );
-    (*env)->SetByteArrayRegion( env, masterKey, 0, (jsize)MPMasterKeySize, (jbyte *)masterKeyBytes );
+    memcpy( masterKeyBuffer, masterKeyBytes, MPMasterKeySize );
     mpw_free( &masterKeyBytes, MPMasterKeySize );
 
-    return masterKey;
+    return JNI_TRUE;
 }
 
-/* native byte[] _siteKey(final byte[] masterKey, final String siteName, final long siteCounter,
+/* native byte[] _siteKey(final ByteBuffer masterKey, final String siteName, final long siteCounter,
                           final int keyPurpose, @Nullable final String keyContext, final int version) */
 JNIEXPORT jbyteArray JNICALL Java_com_lyndir_masterpassword_MPAlgorithm_00024Version__1siteKey(JNIEnv *env, jobject obj,
-        jbyteArray masterKey, jstring siteName, jlong siteCounter, jint keyPurpose, jstring keyContext, jint algorithmVersion) {
+        jobject masterKey, jstring siteName, jlong siteCounter, jint keyPurpose, jstring keyContext, jint algorithmVersion) {
 
-    if (!masterKey || !siteName)
+    const uint8_t *masterKeyBytes = mpw_jni_direct_buffer( env, masterKey, MPMasterKeySize );
+    if (!masterKeyBytes || !siteName)
         return NULL;
 
-    jbyte *masterKeyBytes = (*env)->GetByteArrayElements( env, masterKey, NULL );
     const char *siteNameString = (*env)->GetStringUTFChars( env, siteName, NULL );
     const char *keyContextString = keyContext? (*env)->GetStringUTFChars( env, keyContext, NULL ): NULL;
     MPMasterKey siteKeyBytes = mpw_site_key(
             (MPMasterKey)masterKeyBytes, siteNameString, (MPCounterValue)siteCounter,
             (MPKeyPurpose)keyPurpose, keyContextString, (MPAlgorithmVersion)algorithmVersion );
-    (*env)->ReleaseByteArrayElements( env, masterKey, masterKeyBytes, JNI_ABORT );
     (*env)->ReleaseStringUTFChars( env, siteName, siteNameString );
     if (keyContext)
         (*env)->ReleaseStringUTFChars( env, keyContext, keyContextString );
@@ -140,36 +149,32 @@ JNIEXPORT jbyteArray JNICALL Java_com_lyndir_masterpassword_MPAlgorithm_00024Ver
     if (!siteKeyBytes)
         return NULL;
 
-    jbyteArray siteKey = (*env)->NewByteArray( env, (jsize)MPMasterKeySize );
-    (*env)->SetByteArrayRegion( env, siteKey, 0, (jsize)MPMasterKeySize, (jbyte *)siteKeyBytes );
+    jbyteArray siteKey = (*env)->NewByteArray( env, (jsize)MPSiteKeySize );
+    (*env)->SetByteArrayRegion( env, siteKey, 0, (jsize)MPSiteKeySize, (jbyte *)siteKeyBytes );
     mpw_free( &siteKeyBytes, MPSiteKeySize );
 
     return siteKey;
 }
 
-/* native String _siteResult(final byte[] masterKey, final byte[] siteKey, final String siteName, final long siteCounter,
-                             final int keyPurpose, @Nullable final String keyContext,
+/* native String _siteResult(final ByteBuffer masterKey, final byte[] siteKey,
                              final int resultType, @Nullable final String resultParam, final int algorithmVersion) */
 JNIEXPORT jstring JNICALL Java_com_lyndir_masterpassword_MPAlgorithm_00024Version__1siteResult(JNIEnv *env, jobject obj,
-        jbyteArray masterKey, jbyteArray siteKey, jstring siteName, jlong siteCounter, jint keyPurpose, jstring keyContext,
-        jint resultType, jstring resultParam, jint algorithmVersion) {
+        jobject masterKey, jbyteArray siteKey, jint resultType, jstring resultParam, jint algorithmVersion) {
 
-    if (!masterKey || !siteKey || !siteName)
+    const uint8_t *masterKeyBytes = mpw_jni_direct_buffer( env, masterKey, MPMasterKeySize );
+    if (!masterKeyBytes || !siteKey)
+        return NULL;
+    if ((*env)->GetArrayLength( env, siteKey ) < (jsize)MPSiteKeySize)
         return NULL;
 
-    jbyte *masterKeyBytes = (*env)->GetByteArrayElements( env, masterKey, NULL );
     jbyte *siteKeyBytes = (*env)->GetByteArrayElements( env, siteKey, NULL );
-    const char *siteNameString = (*env)->GetStringUTFChars( env, siteName, NULL );
-    const char *keyContextString = keyContext? (*env)->GetStringUTFChars( env, keyContext, NULL ): NULL;
+    if (!siteKeyBytes)
+        return NULL;
     const char *resultParamString = resultParam? (*env)->GetStringUTFChars( env, resultParam, NULL ): NULL;
-    const char *siteResultString = mpw_site_result(
-            (MPMasterKey)masterKeyBytes, siteNameString, (MPCounterValue)siteCounter,
-            (MPKeyPurpose)keyPurpose, keyContextString, (MPResultType)resultType, resultParamString, (MPAlgorithmVersion)algorithmVersion );
-    (*env)->ReleaseByteArrayElements( env, masterKey, masterKeyBytes, JNI_ABORT );
+    const char *siteResultString = mpw_site_result_with_key(
+            (MPMasterKey)masterKeyBytes, (MPSiteKey)siteKeyBytes,
+            (MPResultType)resultType, resultParamString, (MPAlgorithmVersion)algorithmVersion );
     (*env)->ReleaseByteArrayElements( env, siteKey, siteKeyBytes, JNI_ABORT );
-    (*env)->ReleaseStringUTFChars( env, siteName, siteNameString );
-    if (keyContext)
-        (*env)->ReleaseStringUTFChars( env, keyContext, keyContextString );
     if (resultParam)
         (*env)->ReleaseStringUTFChars( env, resultParam, resultParamString );
 
@@ -182,31 +187,119 @@ JNIEXPORT jstring JNICALL Java_com_lyndir_masterpassword_MPAlgorithm_00024Versio
     return siteResult;
 }
 
-/* native String _siteState(final byte[] masterKey, final byte[] siteKey, final String siteName, final long siteCounter,
-                            final int keyPurpose, @Nullable final String keyContext,
+static bool mpw_jni_read_int(const jbyte **cursor, const jbyte *end, uint32_t *value) {
+
+    if (end - *cursor < 4)
+        return false;
+
+    const uint8_t *bytes = (const uint8_t *)*cursor;
+    *value = ((uint32_t)bytes[0] << 24) | ((uint32_t)bytes[1] << 16) | ((uint32_t)bytes[2] << 8) | (uint32_t)bytes[3];
+    *cursor += 4;
+    return true;
+}
+
+static bool mpw_jni_read_string(const jbyte **cursor, const jbyte *end, const char **value) {
+
+    // Present flag, then a DataOutput UTF string (2-byte length and modified UTF-8 bytes) with a NUL terminator.
+    if (end - *cursor < 1)
+        return false;
+    if (!*(*cursor)++) {
+        *value = NULL;
+        return true;
+    }
+
+    if (end - *cursor < 2)
+        return false;
+    size_t length = ((size_t)(uint8_t)(*cursor)[0] << 8) | (size_t)(uint8_t)(*cursor)[1];
+    *cursor += 2;
+
+    if ((size_t)(end - *cursor) < length + 1 || (*cursor)[length] != 0)
+        return false;
+    *value = (const char *)*cursor;
+    *cursor += length + 1;
+    return true;
+}
+
+/* native String[] _siteResults(final ByteBuffer masterKey, final byte[] requests, final int requestCount,
+                                final int algorithmVersion) */
+JNIEXPORT jobjectArray JNICALL Java_com_lyndir_masterpassword_MPAlgorithm_00024Version__1siteResults(JNIEnv *env, jobject obj,
+        jobject masterKey, jbyteArray requests, jint requestCount, jint algorithmVersion) {
+
+    const uint8_t *masterKeyBytes = mpw_jni_direct_buffer( env, masterKey, MPMasterKeySize );
+    if (!masterKeyBytes || !requests || requestCount < 0)
+        return NULL;
+
+    jclass cString = (*env)->FindClass( env, "java/lang/String" );
+    if (!cString)
+        return NULL;
+    jobjectArray siteResults = (*env)->NewObjectArray( env, requestCount, cString, NULL );
+    if (!siteResults)
+        return NULL;
+
+    jbyte *requestsBytes = (*env)->GetByteArrayElements( env, requests, NULL );
+    if (!requestsBytes)
+        return NULL;
+    const jbyte *cursor = requestsBytes, *end = requestsBytes + (*env)->GetArrayLength( env, requests );
+
+    for (jint r = 0; r < requestCount; ++r) {
+        uint32_t siteCounter, keyPurpose, resultType;
+        const char *siteName, *keyContext, *resultParam;
+        if (!mpw_jni_read_int( &cursor, end, &siteCounter ) ||
+            !mpw_jni_read_int( &cursor, end, &keyPurpose ) ||
+            !mpw_jni_read_int( &cursor, end, &resultType ) ||
+            !mpw_jni_read_string( &cursor, end, &siteName ) ||
+            !mpw_jni_read_string( &cursor, end, &keyContext ) ||
+            !mpw_jni_read_string( &cursor, end, &resultParam )) {
+            err( "Malformed site request: %d", r );
+            break;
+        }
+
+        MPSiteKey siteKeyBytes = mpw_site_key(
+                (MPMasterKey)masterKeyBytes, siteName, (MPCounterValue)siteCounter,
+                (MPKeyPurpose)keyPurpose, keyContext, (MPAlgorithmVersion)algorithmVersion );
+        const char *siteResultString = mpw_site_result_with_key(
+                (MPMasterKey)masterKeyBytes, siteKeyBytes,
+                (MPResultType)resultType, resultParam, (MPAlgorithmVersion)algorithmVersion );
+        mpw_free( &siteKeyBytes, MPSiteKeySize );
+
+        if (siteResultString) {
+            jstring siteResult = (*env)->NewStringUTF( env, siteResultString );
+            mpw_free_string( &siteResultString );
+            if ((*env)->ExceptionCheck( env )) {
+                // Leave the pending exception (eg. OutOfMemoryError) to be thrown on return.
+                (*env)->ReleaseByteArrayElements( env, requests, requestsBytes, JNI_ABORT );
+                return NULL;
+            }
+            (*env)->SetObjectArrayElement( env, siteResults, r, siteResult );
+            (*env)->DeleteLocalRef( env, siteResult );
+        }
+    }
+
+    (*env)->ReleaseByteArrayElements( env, requests, requestsBytes, JNI_ABORT );
+
+    return siteResults;
+}
+
+/* native String _siteState(final ByteBuffer masterKey, final byte[] siteKey,
                             final int resultType, final String resultParam, final int algorithmVersion) */
 JNIEXPORT jstring JNICALL Java_com_lyndir_masterpassword_MPAlgorithm_00024Version__1siteState(JNIEnv *env, jobject obj,
-        jbyteArray masterKey, jbyteArray siteKey, jstring siteName, jlong siteCounter, jint keyPurpose, jstring keyContext,
-        jint resultType, jstring resultParam, jint algorithmVersion) {
+        jobject masterKey, jbyteArray siteKey, jint resultType, jstring resultParam, jint algorithmVersion) {
 
-    if (!masterKey || !siteKey || !siteName || !resultParam)
+    const uint8_t *masterKeyBytes = mpw_jni_direct_buffer( env, masterKey, MPMasterKeySize );
+    if (!masterKeyBytes || !siteKey || !resultParam)
+        return NULL;
+    if ((*env)->GetArrayLength( env, siteKey ) < (jsize)MPSiteKeySize)
         return NULL;
 
-    jbyte *masterKeyBytes = (*env)->GetByteArrayElements( env, masterKey, NULL );
     jbyte *siteKeyBytes = (*env)->GetByteArrayElements( env, siteKey, NULL );
-    const char *siteNameString = (*env)->GetStringUTFChars( env, siteName, NULL );
-    const char *keyContextString = keyContext? (*env)->GetStringUTFChars( env, keyContext, NULL ): NULL;
+    if (!siteKeyBytes)
+        return NULL;
     const char *resultParamString = (*env)->GetStringUTFChars( env, resultParam, NULL );
-    const char *siteStateString = mpw_site_state(
-            (MPMasterKey)masterKeyBytes, siteNameString, (MPCounterValue)siteCounter,
-            (MPKeyPurpose)keyPurpose, keyContextString, (MPResultType)resultType, resultParamString, (MPAlgorithmVersion)algorithmVersion );
-    (*env)->ReleaseByteArrayElements( env, masterKey, masterKeyBytes, JNI_ABORT );
+    const char *siteStateString = mpw_site_state_with_key(
+            (MPMasterKey)masterKeyBytes, (MPSiteKey)siteKeyBytes,
+            (MPResultType)resultType, resultParamString, (MPAlgorithmVersion)algorithmVersion );
     (*env)->ReleaseByteArrayElements( env, siteKey, siteKeyBytes, JNI_ABORT );
-    (*env)->ReleaseStringUTFChars( env, siteName, siteNameString );
-    if (keyContextString)
-        (*env)->ReleaseStringUTFChars( env, keyContext, keyContextString );
-    if (resultParam)
-        (*env)->ReleaseStringUTFChars( env, resultParam, resultParamString );
+    (*env)->ReleaseStringUTFChars( env, resultParam, resultParamString );
 
     if (!siteStateString)
         return NULL;
@@ -258,9 +351,13 @@ JNIEXPORT jobject JNICALL Java_com_lyndir_masterpassword_MPAlgorithm_00024Versio
             (*env)->GetObjectArrayElement( env, values, identicon.color ) );
 }
 
-/* native String _toID(final byte[] buffer) */
+/* native String _toID(final ByteBuffer buffer) */
 JNIEXPORT jstring JNICALL Java_com_lyndir_masterpassword_MPAlgorithm_00024Version__1toID(JNIEnv *env, jobject obj,
-        jbyteArray buffer) {
+        jobject buffer) {
+
+    const uint8_t *bufferBytes = mpw_jni_direct_buffer( env, buffer, 0 );
+    if (!bufferBytes)
+        return NULL;
 
-    return (*env)->NewStringUTF( env, mpw_id_buf( (*env)->GetByteArrayElements( env, buffer, NULL ), (*env)->GetArrayLength( env, buffer ) ) );
+    return (*env)->NewStringUTF( env, mpw_id_buf( bufferBytes, (size_t)(*env)->GetDirectBufferCapacity( env, buffer ) ) );
 }
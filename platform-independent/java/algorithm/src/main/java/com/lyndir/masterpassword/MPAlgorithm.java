@@ -23,14 +23,19 @@ import static com.lyndir.lhunath.opal.system.util.StringUtils.strf;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonValue;
 import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.primitives.UnsignedInteger;
 import com.lyndir.lhunath.opal.system.MessageAuthenticationDigests;
 import com.lyndir.lhunath.opal.system.MessageDigests;
 import com.lyndir.lhunath.opal.system.logging.Logger;
 import com.lyndir.masterpassword.impl.*;
+import com.lyndir.masterpassword.util.Utilities;
+import java.io.*;
 import java.nio.*;
 import java.nio.charset.*;
-import java.util.Arrays;
+import java.util.*;
+import java.util.function.Function;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -50,6 +55,17 @@ public interface MPAlgorithm {
     @Nullable
     byte[] masterKey(String fullName, char[] masterPassword);
 
+    /**
+     * Derive a master key that describes a user's identity into off-heap memory.
+     *
+     * @param masterKey A direct buffer of at least {@link #mpw_master_key_size()} bytes that receives the key.
+     *
+     * @return {@code false} if the key could not be derived.
+     *
+     * @see #masterKey(String, char[])
+     */
+    boolean masterKey(String fullName, char[] masterPassword, ByteBuffer masterKey);
+
     /**
      * Derive a site key that describes a user's access to a specific entity.
      *
@@ -63,9 +79,20 @@ public interface MPAlgorithm {
     byte[] siteKey(byte[] masterKey, String siteName, UnsignedInteger siteCounter,
                    MPKeyPurpose keyPurpose, @Nullable String keyContext);
 
+    /**
+     * @param masterKey A direct buffer holding the master key, as derived by {@link #masterKey(String, char[], ByteBuffer)}.
+     *
+     * @see #siteKey(byte[], String, UnsignedInteger, MPKeyPurpose, String)
+     */
+    @Nullable
+    byte[] siteKey(ByteBuffer masterKey, String siteName, UnsignedInteger siteCounter,
+                   MPKeyPurpose keyPurpose, @Nullable String keyContext);
+
     /**
      * Encode a templated result for a site key.
      *
+     * @param siteKey     The site key, as derived by {@link #siteKey(byte[], String, UnsignedInteger, MPKeyPurpose, String)} for the
+     *                    same site parameters.  It is used as-is and not derived again.
      * @param resultType  The template to base the site key's encoding on.
      * @param resultParam A parameter that provides contextual data specific to the type template.
      */
@@ -74,11 +101,42 @@ public interface MPAlgorithm {
                       MPKeyPurpose keyPurpose, @Nullable String keyContext,
                       MPResultType resultType, @Nullable String resultParam);
 
+    /**
+     * @param masterKey A direct buffer holding the master key, as derived by {@link #masterKey(String, char[], ByteBuffer)}.
+     *
+     * @see #siteResult(byte[], byte[], String, UnsignedInteger, MPKeyPurpose, String, MPResultType, String)
+     */
+    @Nullable
+    String siteResult(ByteBuffer masterKey, byte[] siteKey, String siteName, UnsignedInteger siteCounter,
+                      MPKeyPurpose keyPurpose, @Nullable String keyContext,
+                      MPResultType resultType, @Nullable String resultParam);
+
+    /**
+     * Derive the site keys for and encode the results of many sites at once.
+     *
+     * @param masterKey The identity of the user trying to access the entities.
+     * @param requests  The parameters of each site result to derive.
+     *
+     * @return The encoded results, in the order of {@code requests}.  A result is {@code null} if it could not be derived.
+     */
+    @Nonnull
+    List<String> siteResults(byte[] masterKey, List<SiteRequest> requests);
+
+    /**
+     * @param masterKey A direct buffer holding the master key, as derived by {@link #masterKey(String, char[], ByteBuffer)}.
+     *
+     * @see #siteResults(byte[], List)
+     */
+    @Nonnull
+    List<String> siteResults(ByteBuffer masterKey, List<SiteRequest> requests);
+
     /**
      * For {@link MPResultTypeClass#Stateful} {@code resultType}s, generate the {@code resultParam} to use with the
      * {@link #siteResult(byte[], byte[], String, UnsignedInteger, MPKeyPurpose, String, MPResultType, String)} call
      * in order to reconstruct this call's original {@code resultParam}.
      *
+     * @param siteKey     The site key, as derived by {@link #siteKey(byte[], String, UnsignedInteger, MPKeyPurpose, String)} for the
+     *                    same site parameters.  It is used as-is and not derived again.
      * @param resultType  The template to base the site key's encoding on.
      * @param resultParam A parameter that provides contextual data specific to the type template.
      */
@@ -87,6 +145,16 @@ public interface MPAlgorithm {
                      MPKeyPurpose keyPurpose, @Nullable String keyContext,
                      MPResultType resultType, String resultParam);
 
+    /**
+     * @param masterKey A direct buffer holding the master key, as derived by {@link #masterKey(String, char[], ByteBuffer)}.
+     *
+     * @see #siteState(byte[], byte[], String, UnsignedInteger, MPKeyPurpose, String, MPResultType, String)
+     */
+    @Nullable
+    String siteState(ByteBuffer masterKey, byte[] siteKey, String siteName, UnsignedInteger siteCounter,
+                     MPKeyPurpose keyPurpose, @Nullable String keyContext,
+                     MPResultType resultType, String resultParam);
+
     /**
      * Derive an identicon that represents the user's identity in a visually recognizable way.
      *
@@ -110,6 +178,11 @@ public interface MPAlgorithm {
      */
     String toID(final byte[] buffer);
 
+    /**
+     * Encode a fingerprint for the full capacity of a direct byte buffer.
+     */
+    String toID(final ByteBuffer buffer);
+
     // Configuration
 
     /**
@@ -148,6 +221,75 @@ public interface MPAlgorithm {
     @Nonnull
     Charset mpw_charset();
 
+    /**
+     * mpw: Size of a master key, in bytes.
+     */
+    int mpw_master_key_size();
+
+    /**
+     * The parameters of a single site result, for use with {@link #siteResults(byte[], List)}.
+     */
+    final class SiteRequest {
+
+        private final String          siteName;
+        private final UnsignedInteger siteCounter;
+        private final MPKeyPurpose    keyPurpose;
+        @Nullable
+        private final String          keyContext;
+        private final MPResultType    resultType;
+        @Nullable
+        private final String          resultParam;
+
+        /**
+         * @see #siteResult(byte[], byte[], String, UnsignedInteger, MPKeyPurpose, String, MPResultType, String)
+         */
+        public SiteRequest(final String siteName, final UnsignedInteger siteCounter,
+                           final MPKeyPurpose keyPurpose, @Nullable final String keyContext,
+                           final MPResultType resultType, @Nullable final String resultParam) {
+            this.siteName = siteName;
+            this.siteCounter = siteCounter;
+            this.keyPurpose = keyPurpose;
+            this.keyContext = keyContext;
+            this.resultType = resultType;
+            this.resultParam = resultParam;
+        }
+
+        @Nonnull
+        public String getSiteName() {
+            return siteName;
+        }
+
+        @Nonnull
+        public UnsignedInteger getSiteCounter() {
+            return siteCounter;
+        }
+
+        @Nonnull
+        public MPKeyPurpose getKeyPurpose() {
+            return keyPurpose;
+        }
+
+        @Nullable
+        public String getKeyContext() {
+            return keyContext;
+        }
+
+        @Nonnull
+        public MPResultType getResultType() {
+            return resultType;
+        }
+
+        @Nullable
+        public String getResultParam() {
+            return resultParam;
+        }
+
+        @Override
+        public String toString() {
+            return strf( "{SiteRequest: %s}", siteName );
+        }
+    }
+
     /**
      * The algorithm iterations.
      */
@@ -211,6 +353,24 @@ public interface MPAlgorithm {
         @Override
         public byte[] masterKey(final String fullName, final char[] masterPassword) {
 
+            ByteBuffer masterKey = ByteBuffer.allocateDirect( mpw_master_key_size() );
+            try {
+                if (!masterKey( fullName, masterPassword, masterKey ))
+                    return null;
+
+                byte[] masterKeyBytes = new byte[masterKey.capacity()];
+                masterKey.get( masterKeyBytes );
+                return masterKeyBytes;
+            }
+            finally {
+                Utilities.wipe( masterKey );
+            }
+        }
+
+        @Override
+        public boolean masterKey(final String fullName, final char[] masterPassword, final ByteBuffer masterKey) {
+            Preconditions.checkArgument( masterKey.isDirect() && (masterKey.capacity() >= mpw_master_key_size()) );
+
             // Create a memory-safe NUL-terminated UTF-8 C-string byte array variant of masterPassword.
             CharsetEncoder encoder             = mpw_charset().newEncoder();
             byte[]         masterPasswordBytes = new byte[(int) (masterPassword.length * (double) encoder.maxBytesPerChar()) + 1];
@@ -225,26 +385,35 @@ public interface MPAlgorithm {
                 if (result.isError())
                     throw new IllegalStateException( result.toString() );
 
-                return _masterKey( fullName, masterPasswordBytes, version().toInt() );
+                return _masterKey( fullName, masterPasswordBytes, masterKey, version().toInt() );
             }
             finally {
                 Arrays.fill( masterPasswordBytes, (byte) 0 );
             }
         }
 
-        @Nullable
-        protected native byte[] _masterKey(final String fullName, final byte[] masterPassword, final int algorithmVersion);
+        protected native boolean _masterKey(final String fullName, final byte[] masterPassword, final ByteBuffer masterKey,
+                                            final int algorithmVersion);
 
         @Nullable
         @Override
         public byte[] siteKey(final byte[] masterKey, final String siteName, final UnsignedInteger siteCounter,
                               final MPKeyPurpose keyPurpose, @Nullable final String keyContext) {
 
+            return withDirectBuffer( masterKey, masterKeyBuffer -> siteKey(
+                    masterKeyBuffer, siteName, siteCounter, keyPurpose, keyContext ) );
+        }
+
+        @Nullable
+        @Override
+        public byte[] siteKey(final ByteBuffer masterKey, final String siteName, final UnsignedInteger siteCounter,
+                              final MPKeyPurpose keyPurpose, @Nullable final String keyContext) {
+
             return _siteKey( masterKey, siteName, siteCounter.longValue(), keyPurpose.toInt(), keyContext, version().toInt() );
         }
 
         @Nullable
-        protected native byte[] _siteKey(final byte[] masterKey, final String siteName, final long siteCounter,
+        protected native byte[] _siteKey(final ByteBuffer masterKey, final String siteName, final long siteCounter,
                                          final int keyPurpose, @Nullable final String keyContext, final int version);
 
         @Nullable
@@ -253,28 +422,94 @@ public interface MPAlgorithm {
                                  final MPKeyPurpose keyPurpose, @Nullable final String keyContext,
                                  final MPResultType resultType, @Nullable final String resultParam) {
 
-            return _siteResult( masterKey, siteKey, siteName, siteCounter.longValue(),
-                                keyPurpose.toInt(), keyContext, resultType.getType(), resultParam, version().toInt() );
+            return withDirectBuffer( masterKey, masterKeyBuffer -> siteResult(
+                    masterKeyBuffer, siteKey, siteName, siteCounter, keyPurpose, keyContext, resultType, resultParam ) );
         }
 
         @Nullable
-        protected native String _siteResult(final byte[] masterKey, final byte[] siteKey, final String siteName, final long siteCounter,
-                                            final int keyPurpose, @Nullable final String keyContext,
+        @Override
+        public String siteResult(final ByteBuffer masterKey, final byte[] siteKey, final String siteName,
+                                 final UnsignedInteger siteCounter, final MPKeyPurpose keyPurpose, @Nullable final String keyContext,
+                                 final MPResultType resultType, @Nullable final String resultParam) {
+
+            return _siteResult( masterKey, siteKey, resultType.getType(), resultParam, version().toInt() );
+        }
+
+        @Nullable
+        protected native String _siteResult(final ByteBuffer masterKey, final byte[] siteKey,
                                             final int resultType, @Nullable final String resultParam, final int algorithmVersion);
 
+        @Nonnull
+        @Override
+        public List<String> siteResults(final byte[] masterKey, final List<SiteRequest> requests) {
+
+            return withDirectBuffer( masterKey, masterKeyBuffer -> siteResults( masterKeyBuffer, requests ) );
+        }
+
+        @Nonnull
+        @Override
+        public List<String> siteResults(final ByteBuffer masterKey, final List<SiteRequest> requests) {
+
+            if (requests.isEmpty())
+                return ImmutableList.of();
+
+            // Pack the requests into a single buffer, encoding strings in the same modified UTF-8 that JNI uses for String arguments.
+            ByteArrayOutputStream requestsBytes = new ByteArrayOutputStream( requests.size() * 64 );
+            try (DataOutputStream requestsStream = new DataOutputStream( requestsBytes )) {
+                for (final SiteRequest request : requests) {
+                    requestsStream.writeInt( request.getSiteCounter().intValue() );
+                    requestsStream.writeInt( request.getKeyPurpose().toInt() );
+                    requestsStream.writeInt( request.getResultType().getType() );
+                    writeRequestString( requestsStream, request.getSiteName() );
+                    writeRequestString( requestsStream, request.getKeyContext() );
+                    writeRequestString( requestsStream, request.getResultParam() );
+                }
+            }
+            catch (final IOException e) {
+                throw new IllegalArgumentException( "Couldn't pack site requests.", e );
+            }
+
+            String[] results = _siteResults( masterKey, requestsBytes.toByteArray(), requests.size(), version().toInt() );
+            if (results == null)
+                return Collections.nCopies( requests.size(), null );
+
+            return Collections.unmodifiableList( Arrays.asList( results ) );
+        }
+
+        private static void writeRequestString(final DataOutputStream requestsStream, @Nullable final String string)
+                throws IOException {
+            requestsStream.writeBoolean( string != null );
+            if (string != null) {
+                requestsStream.writeUTF( string );
+                requestsStream.writeByte( 0 );
+            }
+        }
+
+        @Nullable
+        protected native String[] _siteResults(final ByteBuffer masterKey, final byte[] requests, final int requestCount,
+                                               final int algorithmVersion);
+
         @Nullable
         @Override
         public String siteState(final byte[] masterKey, final byte[] siteKey, final String siteName, final UnsignedInteger siteCounter,
                                 final MPKeyPurpose keyPurpose, @Nullable final String keyContext,
                                 final MPResultType resultType, final String resultParam) {
 
-            return _siteState( masterKey, siteKey, siteName, siteCounter.longValue(),
-                               keyPurpose.toInt(), keyContext, resultType.getType(), resultParam, version().toInt() );
+            return withDirectBuffer( masterKey, masterKeyBuffer -> siteState(
+                    masterKeyBuffer, siteKey, siteName, siteCounter, keyPurpose, keyContext, resultType, resultParam ) );
+        }
+
+        @Nullable
+        @Override
+        public String siteState(final ByteBuffer masterKey, final byte[] siteKey, final String siteName,
+                                final UnsignedInteger siteCounter, final MPKeyPurpose keyPurpose, @Nullable final String keyContext,
+                                final MPResultType resultType, final String resultParam) {
+
+            return _siteState( masterKey, siteKey, resultType.getType(), resultParam, version().toInt() );
         }
 
         @Nullable
-        protected native String _siteState(final byte[] masterKey, final byte[] siteKey, final String siteName, final long siteCounter,
-                                           final int keyPurpose, @Nullable final String keyContext,
+        protected native String _siteState(final ByteBuffer masterKey, final byte[] siteKey,
                                            final int resultType, final String resultParam, final int algorithmVersion);
 
         @Nullable
@@ -335,11 +570,30 @@ public interface MPAlgorithm {
 
         @Override
         public String toID(final byte[] buffer) {
+            return withDirectBuffer( buffer, this::toID );
+        }
+
+        @Override
+        public String toID(final ByteBuffer buffer) {
             return _toID( buffer );
         }
 
         @Nullable
-        protected native String _toID(final byte[] buffer);
+        protected native String _toID(final ByteBuffer buffer);
+
+        /**
+         * Expose a heap array to the native side through a temporary direct buffer, which is wiped afterwards.
+         */
+        private static <R> R withDirectBuffer(final byte[] bytes, final Function<ByteBuffer, R> function) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect( bytes.length );
+            try {
+                buffer.put( bytes );
+                return function.apply( buffer );
+            }
+            finally {
+                Utilities.wipe( buffer );
+            }
+        }
 
         // Configuration
 
@@ -378,5 +632,10 @@ public interface MPAlgorithm {
         public Charset mpw_charset() {
             return Charsets.UTF_8;
         }
+
+        @Override
+        public int mpw_master_key_size() {
+            return 64;
+        }
     }
 }
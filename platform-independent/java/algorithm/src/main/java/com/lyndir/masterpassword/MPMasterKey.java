@@ -21,8 +21,14 @@ package com.lyndir.masterpassword;
 import com.google.common.base.Preconditions;
 import com.google.common.primitives.UnsignedInteger;
 import com.lyndir.lhunath.opal.system.logging.Logger;
-import java.util.Arrays;
-import java.util.EnumMap;
+import com.lyndir.masterpassword.util.Utilities;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -35,11 +41,13 @@ public class MPMasterKey {
     @SuppressWarnings("UnusedDeclaration")
     private static final Logger logger = Logger.get( MPMasterKey.class );
 
-    private final EnumMap<MPAlgorithm.Version, byte[]> keyByVersion = new EnumMap<>( MPAlgorithm.Version.class );
-    private final String                               fullName;
-    private final char[]                               masterPassword;
+    // Keys live off-heap, where the collector cannot leave stray copies of them, and are wiped by #invalidate().
+    // Each version's key is derived at most once; concurrent callers share the in-flight derivation.
+    private final EnumMap<MPAlgorithm.Version, Derivation> keyByVersion = new EnumMap<>( MPAlgorithm.Version.class );
+    private final String                                   fullName;
+    private final char[]                                   masterPassword;
 
-    private boolean invalidated;
+    private volatile boolean invalidated;
 
     /**
      * @param masterPassword The characters of the user's master password.
@@ -85,14 +93,61 @@ public class MPMasterKey {
         return algorithm.toID( masterKey( algorithm ) );
     }
 
+    /**
+     * Start deriving the master key for an algorithm in the background, if it isn't derived or being derived already.
+     *
+     * @param executor The executor to run the derivation on.
+     *
+     * @return A future that completes with this object once its key for {@code algorithm} is available.  It completes
+     * exceptionally with {@link MPKeyUnavailableException} or {@link MPAlgorithmException} if the key could not be derived.
+     */
+    @Nonnull
+    public CompletableFuture<MPMasterKey> deriveAsync(final MPAlgorithm algorithm, final Executor executor) {
+
+        try {
+            Derivation derivation = derivation( algorithm );
+            try {
+                executor.execute( derivation );
+            }
+            catch (final RejectedExecutionException ignored) {
+                // The derivation will run on the first thread that needs the key.
+            }
+
+            return derivation.thenApply( masterKey -> this );
+        }
+        catch (final MPKeyUnavailableException e) {
+            CompletableFuture<MPMasterKey> unavailable = new CompletableFuture<>();
+            unavailable.completeExceptionally( e );
+            return unavailable;
+        }
+    }
+
+    /**
+     * Start deriving the master keys for several algorithms in the background, in parallel as far as the executor allows.
+     *
+     * @return A future that completes with this object once its keys for all of the {@code algorithms} are available.
+     *
+     * @see #deriveAsync(MPAlgorithm, Executor)
+     */
+    @Nonnull
+    public CompletableFuture<MPMasterKey> deriveAsync(final Collection<? extends MPAlgorithm> algorithms, final Executor executor) {
+
+        return CompletableFuture.allOf( algorithms.stream().map( algorithm -> deriveAsync( algorithm, executor ) )
+                                                  .toArray( CompletableFuture[]::new ) ).thenApply( derived -> this );
+    }
+
     /**
      * Wipe this key's secrets from memory, making the object permanently unusable.
      */
     public void invalidate() {
 
-        invalidated = true;
-        for (final byte[] key : keyByVersion.values())
-            Arrays.fill( key, (byte) 0 );
+        synchronized (keyByVersion) {
+            invalidated = true;
+
+            // Keys that are still being derived are wiped as soon as they become available.
+            for (final Derivation key : keyByVersion.values())
+                key.thenAccept( Utilities::wipe );
+        }
         Arrays.fill( masterPassword, (char) 0 );
     }
 
@@ -100,22 +155,68 @@ public class MPMasterKey {
         return !invalidated;
     }
 
+    /**
+     * @return {@code true} if this key is for the given master password.  Passwords of the same length take the same time to compare.
+     */
+    public boolean isFor(final char[] masterPassword) {
+        byte[] ownBytes = encode( this.masterPassword ), otherBytes = encode( masterPassword );
+        try {
+            return isValid() && MessageDigest.isEqual( ownBytes, otherBytes );
+        }
+        finally {
+            Arrays.fill( ownBytes, (byte) 0 );
+            Arrays.fill( otherBytes, (byte) 0 );
+        }
+    }
+
+    private static byte[] encode(final char[] chars) {
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode( CharBuffer.wrap( chars ) );
+        byte[]     bytes  = new byte[buffer.remaining()];
+        buffer.get( bytes );
+        Arrays.fill( buffer.array(), (byte) 0 );
+
+        return bytes;
+    }
+
     @Nonnull
-    private byte[] masterKey(final MPAlgorithm algorithm)
+    private ByteBuffer masterKey(final MPAlgorithm algorithm)
             throws MPKeyUnavailableException, MPAlgorithmException {
-        Preconditions.checkArgument( masterPassword.length > 0 );
 
-        if (!isValid())
-            throw new MPKeyUnavailableException( "Master key was invalidated." );
+        // Derive on the calling thread, unless another thread is already busy deriving this key.
+        Derivation derivation = derivation( algorithm );
+        derivation.run();
+        try {
+            ByteBuffer masterKey = derivation.join();
+            if (!isValid())
+                throw new MPKeyUnavailableException( "Master key was invalidated." );
+
+            return masterKey;
+        }
+        catch (final CompletionException e) {
+            if (e.getCause() instanceof MPKeyUnavailableException)
+                throw (MPKeyUnavailableException) e.getCause();
+            if (e.getCause() instanceof MPAlgorithmException)
+                throw (MPAlgorithmException) e.getCause();
 
-        byte[] masterKey = keyByVersion.get( algorithm.version() );
-        if (masterKey == null) {
-            keyByVersion.put( algorithm.version(), masterKey = algorithm.masterKey( fullName, masterPassword ) );
+            throw new MPAlgorithmException( "Could not derive master key.", e.getCause() );
         }
-        if (masterKey == null)
-            throw new MPAlgorithmException( "Could not derive master key." );
+    }
+
+    @Nonnull
+    private Derivation derivation(final MPAlgorithm algorithm)
+            throws MPKeyUnavailableException {
+        Preconditions.checkArgument( masterPassword.length > 0 );
 
-        return masterKey;
+        synchronized (keyByVersion) {
+            if (!isValid())
+                throw new MPKeyUnavailableException( "Master key was invalidated." );
+
+            Derivation derivation = keyByVersion.get( algorithm.version() );
+            if (derivation == null)
+                keyByVersion.put( algorithm.version(), derivation = new Derivation( algorithm ) );
+
+            return derivation;
+        }
     }
 
     @Nonnull
@@ -124,8 +225,8 @@ public class MPMasterKey {
             throws MPKeyUnavailableException, MPAlgorithmException {
         Preconditions.checkArgument( !siteName.isEmpty() );
 
-        byte[] masterKey = masterKey( algorithm );
-        byte[] siteKey = algorithm.siteKey( masterKey, siteName, siteCounter, keyPurpose, keyContext );
+        ByteBuffer masterKey = masterKey( algorithm );
+        byte[]     siteKey   = algorithm.siteKey( masterKey, siteName, siteCounter, keyPurpose, keyContext );
         if (siteKey == null)
             throw new MPAlgorithmException( "Could not derive site key." );
 
@@ -158,17 +259,69 @@ public class MPMasterKey {
         if ((resultType.getTypeClass() == MPResultTypeClass.Stateful) && (resultParam == null))
             return null;
 
-        byte[] masterKey = masterKey( algorithm );
-        byte[] siteKey   = siteKey( siteName, algorithm, siteCounter, keyPurpose, keyContext );
+        ByteBuffer masterKey = masterKey( algorithm );
+        byte[]     siteKey   = siteKey( siteName, algorithm, siteCounter, keyPurpose, keyContext );
 
-        String siteResult = algorithm.siteResult(
-                masterKey, siteKey, siteName, siteCounter, keyPurpose, keyContext, resultType, resultParam );
+        String siteResult;
+        try {
+            siteResult = algorithm.siteResult(
+                    masterKey, siteKey, siteName, siteCounter, keyPurpose, keyContext, resultType, resultParam );
+        }
+        finally {
+            Arrays.fill( siteKey, (byte) 0 );
+        }
         if (siteResult == null)
             throw new MPAlgorithmException( "Could not derive site result." );
 
         return siteResult;
     }
 
+    /**
+     * Generate the tokens for many sites at once, paying the native call overhead only once.
+     *
+     * @param algorithm The algorithm version to derive all of the tokens with.
+     * @param requests  The parameters of each token to derive.
+     *
+     * @return The tokens, in the order of {@code requests}.  A token is {@code null} if its result type is missing a required
+     * parameter.
+     *
+     * @throws MPKeyUnavailableException {@link #invalidate()} has been called on this object.
+     * @throws MPAlgorithmException      An internal system or algorithm error has occurred.
+     * @see #siteResult(String, MPAlgorithm, UnsignedInteger, MPKeyPurpose, String, MPResultType, String)
+     */
+    @Nonnull
+    public List<String> siteResults(final MPAlgorithm algorithm, final List<MPAlgorithm.SiteRequest> requests)
+            throws MPKeyUnavailableException, MPAlgorithmException {
+
+        // Requests for stateful types without a state have no result and are not derived.
+        List<MPAlgorithm.SiteRequest> derivableRequests = new ArrayList<>( requests.size() );
+        for (final MPAlgorithm.SiteRequest request : requests) {
+            Preconditions.checkArgument( !request.getSiteName().isEmpty() );
+
+            if (isDerivable( request ))
+                derivableRequests.add( request );
+        }
+
+        List<String> derivedResults = algorithm.siteResults( masterKey( algorithm ), derivableRequests );
+        List<String> siteResults    = new ArrayList<>( requests.size() );
+        Iterator<String> derivedResultsIterator = derivedResults.iterator();
+        for (final MPAlgorithm.SiteRequest request : requests)
+            if (isDerivable( request )) {
+                String siteResult = derivedResultsIterator.next();
+                if (siteResult == null)
+                    throw new MPAlgorithmException( "Could not derive site result for: " + request.getSiteName() );
+
+                siteResults.add( siteResult );
+            } else
+                siteResults.add( null );
+
+        return siteResults;
+    }
+
+    private static boolean isDerivable(final MPAlgorithm.SiteRequest request) {
+        return (request.getResultType().getTypeClass() != MPResultTypeClass.Stateful) || (request.getResultParam() != null);
+    }
+
     /**
      * Encrypt a stateful site token for persistence.
      *
@@ -192,14 +345,59 @@ public class MPMasterKey {
         Preconditions.checkNotNull( resultParam );
         Preconditions.checkArgument( !resultParam.isEmpty() );
 
-        byte[] masterKey = masterKey( algorithm );
-        byte[] siteKey   = siteKey( siteName, algorithm, siteCounter, keyPurpose, keyContext );
+        ByteBuffer masterKey = masterKey( algorithm );
+        byte[]     siteKey   = siteKey( siteName, algorithm, siteCounter, keyPurpose, keyContext );
 
-        String siteState = algorithm.siteState(
-                masterKey, siteKey, siteName, siteCounter, keyPurpose, keyContext, resultType, resultParam );
+        String siteState;
+        try {
+            siteState = algorithm.siteState(
+                    masterKey, siteKey, siteName, siteCounter, keyPurpose, keyContext, resultType, resultParam );
+        }
+        finally {
+            Arrays.fill( siteKey, (byte) 0 );
+        }
         if (siteState == null)
             throw new MPAlgorithmException( "Could not derive site state." );
 
         return siteState;
     }
+
+    /**
+     * The derivation of the master key for one algorithm version.  It runs at most once, on whichever thread gets to it first:
+     * an executor it was handed to, or a caller that needs the key and would otherwise have to wait for it.
+     */
+    private final class Derivation extends CompletableFuture<ByteBuffer> implements Runnable {
+
+        private final MPAlgorithm   algorithm;
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        private Derivation(final MPAlgorithm algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        public void run() {
+            if (!started.compareAndSet( false, true ))
+                return;
+            if (!isValid()) {
+                completeExceptionally( new MPKeyUnavailableException( "Master key was invalidated." ) );
+                return;
+            }
+
+            ByteBuffer masterKey = ByteBuffer.allocateDirect( algorithm.mpw_master_key_size() );
+            try {
+                if (!algorithm.masterKey( fullName, masterPassword, masterKey ))
+                    throw new MPAlgorithmException( "Could not derive master key." );
+
+                complete( masterKey );
+            }
+            catch (final Throwable t) {
+                // Forget the failed derivation so that a later request can try again.
+                synchronized (keyByVersion) {
+                    keyByVersion.remove( algorithm.version(), this );
+                }
+                completeExceptionally( t );
+            }
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package com.lyndir.masterpassword.util;
 
+import java.nio.ByteBuffer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import javax.annotation.Nonnull;
@@ -46,4 +47,12 @@ public final class Utilities {
         if (value != null)
             consumer.accept( value );
     }
+
+    /**
+     * Overwrite the full capacity of a buffer with zeros, regardless of its position and limit.
+     */
+    public static void wipe(final ByteBuffer buffer) {
+        for (int b = 0; b < buffer.capacity(); ++b)
+            buffer.put( b, (byte) 0 );
+    }
 }
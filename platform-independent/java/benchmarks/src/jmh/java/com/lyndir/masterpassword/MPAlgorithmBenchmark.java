@@ -0,0 +1,135 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+package com.lyndir.masterpassword;
+
+import com.google.common.primitives.UnsignedInteger;
+import com.lyndir.masterpassword.util.Utilities;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Measures the native algorithm operations behind every master key, site result and identicon.
+ *
+ * @author lhunath, 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MPAlgorithmBenchmark {
+
+    private static final String fullName       = "Robert Lee Mitchell";
+    private static final String masterPassword = "banana colored duckling";
+    private static final String siteName       = "masterpasswordapp.com";
+
+    @Param({ "V0", "V1", "V2", "V3" })
+    public MPAlgorithm.Version version;
+
+    private ByteBuffer masterKey;
+    private byte[]     masterKeyBytes;
+    private byte[]     siteKey;
+
+    @Setup
+    public void setUp() {
+        masterKey = ByteBuffer.allocateDirect( version.mpw_master_key_size() );
+        if (!version.masterKey( fullName, masterPassword.toCharArray(), masterKey ))
+            throw new IllegalStateException( "Couldn't derive master key for: " + version );
+        masterKeyBytes = new byte[masterKey.capacity()];
+        masterKey.duplicate().get( masterKeyBytes );
+
+        siteKey = version.siteKey( masterKey, siteName, UnsignedInteger.ONE, MPKeyPurpose.Authentication, null );
+    }
+
+    @TearDown
+    public void tearDown() {
+        Utilities.wipe( masterKey );
+        Arrays.fill( masterKeyBytes, (byte) 0 );
+    }
+
+    /**
+     * The key stretching is the dominating cost of signing in, and does not depend on the result type.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    public boolean masterKey() {
+        ByteBuffer key = ByteBuffer.allocateDirect( version.mpw_master_key_size() );
+        try {
+            return version.masterKey( fullName, masterPassword.toCharArray(), key );
+        }
+        finally {
+            Utilities.wipe( key );
+        }
+    }
+
+    @Benchmark
+    public byte[] siteKey() {
+        return version.siteKey( masterKey, siteName, UnsignedInteger.ONE, MPKeyPurpose.Authentication, null );
+    }
+
+    /**
+     * The baseline for {@link #siteKey()}: a heap master key, copied into a direct buffer for every call.
+     */
+    @Benchmark
+    public byte[] siteKeyCopying() {
+        return version.siteKey( masterKeyBytes, siteName, UnsignedInteger.ONE, MPKeyPurpose.Authentication, null );
+    }
+
+    @Benchmark
+    public String siteResult(final ResultTypeState state) {
+        return version.siteResult( masterKey, siteKey, siteName, UnsignedInteger.ONE, MPKeyPurpose.Authentication, null,
+                                   state.resultType, null );
+    }
+
+    /**
+     * The baseline for {@link #siteResult(ResultTypeState)}: a heap master key, copied into a direct buffer for every call.
+     */
+    @Benchmark
+    public String siteResultCopying(final ResultTypeState state) {
+        return version.siteResult( masterKeyBytes, siteKey, siteName, UnsignedInteger.ONE, MPKeyPurpose.Authentication, null,
+                                   state.resultType, null );
+    }
+
+    @Benchmark
+    public String toID() {
+        return version.toID( masterKey );
+    }
+
+    @Benchmark
+    public MPIdenticon identicon() {
+        return version.identicon( fullName, masterPassword.toCharArray() );
+    }
+
+    /**
+     * Only the site result depends on the template; the other benchmarks needn't repeat for every result type.
+     */
+    @State(Scope.Benchmark)
+    public static class ResultTypeState {
+
+        @Param({ "GeneratedMaximum", "GeneratedLong", "GeneratedMedium", "GeneratedShort", "GeneratedBasic", "GeneratedPIN",
+                 "GeneratedName", "GeneratedPhrase" })
+        public MPResultType resultType;
+    }
+}
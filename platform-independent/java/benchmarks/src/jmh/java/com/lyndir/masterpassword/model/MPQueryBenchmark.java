@@ -0,0 +1,110 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+package com.lyndir.masterpassword.model;
+
+import com.google.common.collect.ImmutableCollection;
+import com.lyndir.masterpassword.model.impl.MPBenchmarkVaults;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Measures filtering a large collection of site names, as the site list does on every keystroke in its search field.
+ *
+ * @author lhunath, 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MPQueryBenchmark {
+
+    @Param({ "10000", "100000" })
+    public int sites;
+
+    @Param({ "", "g", "gle", "mpwapp", "zzzzzz" })
+    public String query;
+
+    /**
+     * Match large searches in parallel as on a machine with processors to share the work, or always in sequence.
+     */
+    @Param({ "false", "true" })
+    public boolean parallel;
+
+    private int                          parallelThreshold;
+    private List<String>                 siteNames;
+    private MPQueryIndex<String>         index;
+    private List<MPQuery.Result<String>> shown;
+
+    @Setup
+    public void setUp() {
+        parallelThreshold = MPQuery.parallelThreshold;
+        MPQuery.parallelThreshold = parallel? 8192: Integer.MAX_VALUE;
+
+        siteNames = MPBenchmarkVaults.siteNames( sites );
+
+        index = new MPQueryIndex<>( siteName -> siteName );
+        siteNames.forEach( index::add );
+        shown = ranked();
+    }
+
+    @TearDown
+    public void tearDown() {
+        MPQuery.parallelThreshold = parallelThreshold;
+    }
+
+    @Benchmark
+    public ImmutableCollection<MPQuery.Result<? extends String>> find() {
+        return new MPQuery( query ).find( siteNames, siteName -> siteName );
+    }
+
+    @Benchmark
+    public List<MPQuery.Result<String>> indexed() {
+        return index.find( new MPQuery( query ) );
+    }
+
+    @Benchmark
+    public List<MPQuery.Result<String>> ranked() {
+        return index.rank( new MPQuery( query ), (siteName, score) -> score, Comparator.naturalOrder(), 100 );
+    }
+
+    /**
+     * Types the query into the search field, one character at a time.
+     */
+    @Benchmark
+    public List<MPQuery.Result<String>> typed() {
+        List<MPQuery.Result<String>> results = Collections.emptyList();
+        for (int q = 1; q <= query.length(); ++q)
+            results = index.rank( new MPQuery( query.substring( 0, q ) ), (siteName, score) -> score, Comparator.naturalOrder(), 100 );
+
+        return results;
+    }
+
+    /**
+     * Paints the site list's results, as it does when it is scrolled or repainted.
+     */
+    @Benchmark
+    public void painted(final Blackhole blackhole) {
+        for (final MPQuery.Result<String> result : shown)
+            blackhole.consume( result.getKeyAsHTML() );
+    }
+}
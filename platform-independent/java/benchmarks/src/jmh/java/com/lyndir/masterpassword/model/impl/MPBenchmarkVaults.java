@@ -0,0 +1,92 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+package com.lyndir.masterpassword.model.impl;
+
+import com.google.common.primitives.UnsignedInteger;
+import com.lyndir.masterpassword.*;
+import com.lyndir.masterpassword.model.MPIncorrectMasterPasswordException;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import org.joda.time.Instant;
+
+
+/**
+ * Generates reproducible site names and vaults of any size for the benchmarks.
+ *
+ * @author lhunath, 2026-10-18
+ */
+public final class MPBenchmarkVaults {
+
+    public static final String fullName       = "Robert Lee Mitchell";
+    public static final String masterPassword = "banana colored duckling";
+
+    private static final String[]       words = {
+            "mail", "bank", "shop", "cloud", "news", "games", "photo", "music", "travel", "social", "work", "school" };
+    private static final String[]       tlds  = { "com", "net", "org", "io", "be", "co.uk" };
+    private static final MPResultType[] types = {
+            MPResultType.GeneratedLong, MPResultType.GeneratedMaximum, MPResultType.GeneratedPIN, MPResultType.GeneratedPhrase };
+
+    private MPBenchmarkVaults() {
+    }
+
+    /**
+     * @return {@code count} distinct site names, the same ones on every call.
+     */
+    public static List<String> siteNames(final int count) {
+        Random       random    = new Random( count );
+        List<String> siteNames = new ArrayList<>( count );
+        for (int s = 0; s < count; ++s)
+            siteNames.add( String.format( "%s%s%d.%s", words[random.nextInt( words.length )], words[random.nextInt( words.length )],
+                                          s, tlds[random.nextInt( tlds.length )] ) );
+
+        return siteNames;
+    }
+
+    /**
+     * Write out a redacted vault of {@code sites} sites in the given format, mixing result types, counters and algorithm versions.
+     *
+     * @return The file that holds the vault.
+     */
+    public static File write(final File directory, final MPMarshalFormat format, final int sites)
+            throws IOException, MPMarshalException, MPIncorrectMasterPasswordException, MPKeyUnavailableException,
+                   MPAlgorithmException {
+
+        MPMasterKey masterKey = new MPMasterKey( fullName, masterPassword.toCharArray() );
+        MPFileUser user = new MPFileUser( fullName, masterKey.getKeyID( MPAlgorithm.Version.CURRENT ), MPAlgorithm.Version.CURRENT, 0,
+                                          null, new Instant(), false, MPMarshaller.ContentMode.PROTECTED, format,
+                                          directory );
+        user.authenticate( masterKey );
+        user.ignoreChanges();
+
+        List<String> siteNames = siteNames( sites );
+        for (int s = 0; s < siteNames.size(); ++s) {
+            MPFileSite site = user.addSite( siteNames.get( s ) );
+            site.setResultType( types[s % types.length] );
+            site.setCounter( UnsignedInteger.valueOf( 1 + (s % 3) ) );
+            if ((s % 10) == 0)
+                site.setAlgorithm( MPAlgorithm.Version.V2 );
+        }
+
+        format.marshaller().marshall( user );
+        masterKey.invalidate();
+
+        return user.getFile();
+    }
+}
@@ -0,0 +1,116 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+package com.lyndir.masterpassword.model.impl;
+
+import static com.lyndir.lhunath.opal.system.util.StringUtils.*;
+
+import com.google.common.primitives.UnsignedInteger;
+import com.lyndir.lhunath.opal.system.util.ConversionUtils;
+import com.lyndir.masterpassword.MPAlgorithm;
+import com.lyndir.masterpassword.model.MPModelConstants;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Compares tokenizing flat site lines with {@link MPFlatSiteLine} against matching them with the regular expressions it replaced.
+ *
+ * @author lhunath, 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MPFlatSiteLineBenchmark {
+
+    private static final Pattern[] unmarshallFormats = {
+            Pattern.compile( "^([^ ]+) +(\\d+) +(\\d+)(:\\d+)? +([^\t]+)\t(.*)" ),
+            Pattern.compile( "^([^ ]+) +(\\d+) +(\\d+)(:\\d+)?(:\\d+)? +([^\t]*)\t *([^\t]+)\t(.*)" ) };
+    private static final Pattern   colon             = Pattern.compile( ":" );
+
+    @Param({ "0", "1" })
+    public int format;
+
+    private List<String> lines;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random( 0 );
+        Instant now = new Instant();
+
+        lines = new ArrayList<>();
+        for (final String siteName : MPBenchmarkVaults.siteNames( 1000 )) {
+            String lastUsed = MPModelConstants.dateTimeFormatter.print( now.minus( random.nextInt( 30 * 24 * 3600 ) * 1000L ) );
+            if (format == 0)
+                lines.add( strf( "%s  %8d  %8s  %25s\t%s", lastUsed, random.nextInt( 100 ), "17:3",
+                                 siteName, "Jejr5[RepuSosp" ) );
+            else
+                lines.add( strf( "%s  %8d  %8s  %25s\t%25s\t%s", lastUsed, random.nextInt( 100 ), "17:3:1",
+                                 "wohzaqage", siteName, "Jejr5[RepuSosp" ) );
+        }
+    }
+
+    @Benchmark
+    public void tokenizer(final Blackhole blackhole)
+            throws MPMarshalException {
+        MPFlatSiteLine siteLine = new MPFlatSiteLine();
+        for (final String line : lines) {
+            blackhole.consume( siteLine.parse( line, format ) );
+            blackhole.consume( siteLine.lastUsed );
+            blackhole.consume( siteLine.uses );
+            blackhole.consume( siteLine.type );
+            blackhole.consume( siteLine.algorithm );
+            blackhole.consume( siteLine.counter );
+            blackhole.consume( siteLine.loginName );
+            blackhole.consume( siteLine.siteName );
+            blackhole.consume( siteLine.sitePassword );
+        }
+    }
+
+    /**
+     * The per-line work that {@code MPFlatUnmarshaller#readSites} did before it used {@link MPFlatSiteLine}.
+     */
+    @Benchmark
+    public void regex(final Blackhole blackhole) {
+        for (final String line : lines) {
+            Matcher siteMatcher = unmarshallFormats[format].matcher( line );
+            blackhole.consume( siteMatcher.matches() );
+            blackhole.consume( MPModelConstants.dateTimeFormatter.parseDateTime( siteMatcher.group( 1 ) ).toInstant() );
+            blackhole.consume( ConversionUtils.toIntegerNN( siteMatcher.group( 2 ) ) );
+            blackhole.consume( ConversionUtils.toIntegerNN( siteMatcher.group( 3 ) ) );
+            blackhole.consume( MPAlgorithm.Version.fromInt( ConversionUtils.toIntegerNN(
+                    colon.matcher( siteMatcher.group( 4 ) ).replaceAll( "" ) ) ) );
+            if (format == 0) {
+                blackhole.consume( siteMatcher.group( 5 ) );
+                blackhole.consume( siteMatcher.group( 6 ) );
+            } else {
+                blackhole.consume( UnsignedInteger.valueOf( colon.matcher( siteMatcher.group( 5 ) ).replaceAll( "" ) ) );
+                blackhole.consume( siteMatcher.group( 6 ) );
+                blackhole.consume( siteMatcher.group( 7 ) );
+                blackhole.consume( siteMatcher.group( 8 ) );
+            }
+        }
+    }
+}
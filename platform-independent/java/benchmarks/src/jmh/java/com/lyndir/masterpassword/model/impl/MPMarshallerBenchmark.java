@@ -0,0 +1,97 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+
+package com.lyndir.masterpassword.model.impl;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.lyndir.masterpassword.*;
+import com.lyndir.masterpassword.model.MPIncorrectMasterPasswordException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Measures saving a signed-in user's vault in each format, and reports the size of the file it writes.
+ *
+ * @author lhunath, 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MPMarshallerBenchmark {
+
+    @Param({ "1000", "10000" })
+    public int sites;
+
+    @Param({ "Flat", "JSON", "Binary" })
+    public MPMarshalFormat format;
+
+    private File       directory;
+    private MPFileUser user;
+
+    @Setup
+    public void setUp()
+            throws IOException, MPMarshalException, MPIncorrectMasterPasswordException, MPKeyUnavailableException,
+                   MPAlgorithmException {
+        directory = Files.createTempDirectory( "mpw-benchmark" ).toFile();
+        user = MPFileUser.load( MPBenchmarkVaults.write( directory, format, sites ) );
+        if (user == null)
+            throw new MPMarshalException( "Couldn't load the benchmark vault." );
+
+        user.authenticate( MPBenchmarkVaults.masterPassword.toCharArray() );
+    }
+
+    @TearDown
+    public void tearDown()
+            throws IOException {
+        MoreFiles.deleteRecursively( directory.toPath(), RecursiveDeleteOption.ALLOW_INSECURE );
+    }
+
+    /**
+     * Writing all of a user's sites, as done when their changes are saved.
+     */
+    @Benchmark
+    public MPFileUser marshall(final FileSize fileSize)
+            throws IOException, MPMarshalException, MPKeyUnavailableException, MPAlgorithmException {
+        format.marshaller().marshall( user );
+
+        return user;
+    }
+
+    /**
+     * Reports the size of the file written by the last iteration's saves alongside their time.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class FileSize {
+
+        public long bytes;
+
+        @TearDown(Level.Iteration)
+        public void measure(final MPMarshallerBenchmark benchmark) {
+            bytes = benchmark.user.getFile().length();
+        }
+    }
+}
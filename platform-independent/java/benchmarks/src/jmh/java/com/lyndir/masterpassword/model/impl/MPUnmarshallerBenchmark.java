@@ -0,0 +1,88 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+package com.lyndir.masterpassword.model.impl;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.lyndir.masterpassword.*;
+import com.lyndir.masterpassword.model.MPIncorrectMasterPasswordException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Measures loading vaults of growing size in each format, as the user manager does for its users and on sign-in for their sites.
+ *
+ * @author lhunath, 2026-10-18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MPUnmarshallerBenchmark {
+
+    @Param({ "100", "1000", "10000", "100000" })
+    public int sites;
+
+    @Param({ "Flat", "JSON", "Binary" })
+    public MPMarshalFormat format;
+
+    private File directory;
+    private File file;
+
+    @Setup
+    public void setUp()
+            throws IOException, MPMarshalException, MPIncorrectMasterPasswordException, MPKeyUnavailableException,
+                   MPAlgorithmException {
+        directory = Files.createTempDirectory( "mpw-benchmark" ).toFile();
+        file = MPBenchmarkVaults.write( directory, format, sites );
+    }
+
+    @TearDown
+    public void tearDown()
+            throws IOException {
+        MoreFiles.deleteRecursively( directory.toPath(), RecursiveDeleteOption.ALLOW_INSECURE );
+    }
+
+    /**
+     * Reading a user's header, as done for every vault when listing the available users.
+     */
+    @Benchmark
+    public MPFileUser readUser()
+            throws IOException, MPMarshalException {
+        return format.unmarshaller().readUser( file );
+    }
+
+    /**
+     * Reading a user's header and all of their sites.
+     */
+    @Benchmark
+    public MPFileUser readSites()
+            throws IOException, MPMarshalException, MPIncorrectMasterPasswordException, MPKeyUnavailableException,
+                   MPAlgorithmException {
+        MPFileUser user = format.unmarshaller().readUser( file );
+        format.unmarshaller().readSites( user );
+
+        return user;
+    }
+}
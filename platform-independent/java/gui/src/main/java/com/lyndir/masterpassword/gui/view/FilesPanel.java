@@ -59,7 +59,7 @@ public class FilesPanel extends JPanel implements MPFileUserManager.Listener, St
 
     @Override
     public void onFilesUpdated(final ImmutableSortedSet<MPFileUser> files) {
-        usersModel.set( files );
+        Res.ui( () -> usersModel.set( files ) );
     }
 
     @Override
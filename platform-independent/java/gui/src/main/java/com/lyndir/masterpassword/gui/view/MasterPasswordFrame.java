@@ -4,9 +4,11 @@ import com.lyndir.lhunath.opal.system.logging.Logger;
 import com.lyndir.masterpassword.gui.MPGuiConfig;
 import com.lyndir.masterpassword.gui.util.Components;
 import com.lyndir.masterpassword.gui.util.Res;
+import com.lyndir.masterpassword.model.MPConfig;
 import com.lyndir.masterpassword.model.impl.MPFileUserManager;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
 import javax.swing.*;
 import javax.swing.border.BevelBorder;
 
@@ -53,6 +55,14 @@ public class MasterPasswordFrame extends JFrame {
         @Override
         public void componentShown(final ComponentEvent e) {
             MPFileUserManager.get().reload();
+            if (MPConfig.get().watchUsers())
+                try {
+                    MPFileUserManager.get().watch();
+                }
+                catch (final IOException ex) {
+                    logger.wrn( ex, "Couldn't watch the user files in: %s", MPFileUserManager.get().getPath() );
+                }
+
             userContent.transferFocus();
         }
     }
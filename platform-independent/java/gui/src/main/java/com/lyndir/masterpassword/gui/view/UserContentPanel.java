@@ -26,6 +26,7 @@ import java.nio.file.StandardCopyOption;
 import java.security.SecureRandom;
 import java.util.*;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
@@ -45,6 +46,7 @@ public class UserContentPanel extends JPanel implements State.Listener, MPUser.L
 
     private static final Random    random             = new SecureRandom();
     private static final int       SIZE_RESULT        = 48;
+    private static final int       MAX_RESULTS        = 100;
     private static final Logger    logger             = Logger.get( UserContentPanel.class );
     private static final JButton   iconButton         = Components.button( Res.icons().user(), null, null );
     private static final KeyStroke copyLoginKeyStroke = KeyStroke.getKeyStroke( KeyEvent.VK_ENTER, InputEvent.SHIFT_DOWN_MASK );
@@ -300,6 +302,9 @@ public class UserContentPanel extends JPanel implements State.Listener, MPUser.L
 
         private Future<?> identiconJob;
 
+        @Nullable
+        private MPMasterKey masterKey;
+
         private AuthenticateUserPanel(@Nonnull final MPUser<?> user) {
             setLayout( new BoxLayout( this, BoxLayout.PAGE_AXIS ) );
 
@@ -336,6 +341,12 @@ public class UserContentPanel extends JPanel implements State.Listener, MPUser.L
             Arrays.fill( password, (char) 0 );
             masterPasswordField.setText( new String( password ) );
 
+            synchronized (this) {
+                if (masterKey != null)
+                    masterKey.invalidate();
+                masterKey = null;
+            }
+
             super.removeNotify();
         }
 
@@ -412,25 +423,55 @@ public class UserContentPanel extends JPanel implements State.Listener, MPUser.L
         public void actionPerformed(final ActionEvent event) {
             updateIdenticon();
 
-            char[] masterPassword = masterPasswordField.getPassword();
+            char[]      masterPassword = masterPasswordField.getPassword();
+            MPMasterKey masterKey      = takeMasterKey( masterPassword );
+            Arrays.fill( masterPassword, (char) 0 );
             Res.job( () -> {
                 try {
-                    user.authenticate( masterPassword );
+                    user.authenticate( masterKey );
 
                     if (user instanceof MPFileUser)
-                        ((MPFileUser) user).migrateTo( MPMarshalFormat.DEFAULT );
+                        ((MPFileUser) user).upgradeTo( MPMarshalFormat.DEFAULT );
                 }
                 catch (final MPIncorrectMasterPasswordException e) {
+                    masterKey.invalidate();
                     logger.wrn( e, "During user authentication for: %s", user );
                     errorLabel.setText( e.getLocalizedMessage() );
                 }
-                catch (final MPAlgorithmException e) {
+                catch (final MPKeyUnavailableException | MPAlgorithmException e) {
+                    masterKey.invalidate();
                     logger.err( e, "During user authentication for: %s", user );
                     errorLabel.setText( e.getLocalizedMessage() );
                 }
             } );
         }
 
+        /**
+         * Get a master key for the password, sharing the derivation that was started while the password was being typed.
+         */
+        private synchronized MPMasterKey masterKey(final char[] masterPassword) {
+            if ((masterKey == null) || !masterKey.isFor( masterPassword )) {
+                if (masterKey != null)
+                    masterKey.invalidate();
+
+                masterKey = new MPMasterKey( user.getFullName(), masterPassword.clone() );
+                if (masterPassword.length > 0)
+                    masterKey.deriveAsync( user.getAlgorithm(), ForkJoinPool.commonPool() );
+            }
+
+            return masterKey;
+        }
+
+        /**
+         * Hand the master key for the password over to the caller, who becomes responsible for invalidating it.
+         */
+        private synchronized MPMasterKey takeMasterKey(final char[] masterPassword) {
+            MPMasterKey takenMasterKey = masterKey( masterPassword );
+            masterKey = null;
+
+            return takenMasterKey;
+        }
+
         @Override
         public void insertUpdate(final DocumentEvent event) {
             update();
@@ -459,8 +500,12 @@ public class UserContentPanel extends JPanel implements State.Listener, MPUser.L
             char[] masterPassword = masterPasswordField.getPassword();
             MPIdenticon identicon = ((masterPassword != null) && (masterPassword.length > 0))?
                     user.getAlgorithm().identicon( user.getFullName(), masterPassword ): null;
-            if (masterPassword != null)
+            if (masterPassword != null) {
+                // Start deriving the key for the typed password, so it is likely ready by the time the user submits it.
+                if (masterPassword.length > 0)
+                    masterKey( masterPassword );
                 Arrays.fill( masterPassword, (char) 0 );
+            }
 
             Res.ui( () -> {
                 if (identicon != null) {
@@ -608,6 +653,9 @@ public class UserContentPanel extends JPanel implements State.Listener, MPUser.L
                                                        KeyEvent.getKeyText( MPGuiConstants.ui_hotkey.getKeyCode() ) ),
                                                  MPGuiConfig.get().stayResident(), MPGuiConfig.get()::setStayResident ) );
 
+            components.add( Components.checkBox( "Prepare Keys For Older Sites On Sign-In",
+                                                 MPGuiConfig.get().preDeriveKeys(), MPGuiConfig.get()::setPreDeriveKeys ) );
+
             Components.showDialog( this, user.getFullName(), new JOptionPane( Components.panel(
                     BoxLayout.PAGE_AXIS, components.build().toArray( new Component[0] ) ) ) );
         }
@@ -1047,7 +1095,7 @@ public class UserContentPanel extends JPanel implements State.Listener, MPUser.L
             updateSitesJob = Res.job( () -> {
                 MPQuery query = new MPQuery( queryText );
                 Collection<MPQuery.Result<? extends MPSite<?>>> siteItems = new LinkedList<MPQuery.Result<? extends MPSite<?>>>(
-                        query.find( user.getSites(), MPSite::getSiteName ) );
+                        Strings.isNullOrEmpty( queryText )? user.findSites( query ): user.findSites( query, MAX_RESULTS ) );
 
                 if (!Strings.isNullOrEmpty( queryText ))
                     if (siteItems.stream().noneMatch( MPQuery.Result::isExact )) {
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.common.collect.ClassToInstanceMap;
 import com.google.common.collect.MutableClassToInstanceMap;
 import com.lyndir.lhunath.opal.system.logging.Logger;
+import com.lyndir.lhunath.opal.system.util.ConversionUtils;
 import com.lyndir.masterpassword.model.impl.Changeable;
 import com.lyndir.masterpassword.model.impl.MPJSONAnyObject;
 import java.io.File;
@@ -33,6 +34,12 @@ public class MPConfig extends MPJSONAnyObject {
         }
     };
 
+    Boolean preDeriveKeys;
+    Long    saveDelay;
+    Long    saveMaxDelay;
+    Integer saveBackups;
+    Boolean watchUsers;
+
     protected static synchronized <C extends MPConfig> C get(final Class<C> type) {
         C instance = instances.getInstance( type );
 
@@ -64,6 +71,67 @@ public class MPConfig extends MPJSONAnyObject {
         return get( MPConfig.class );
     }
 
+    /**
+     * @return {@code true} if the master keys for all algorithm versions that a user's sites use should be derived up front.
+     */
+    public boolean preDeriveKeys() {
+        return (preDeriveKeys != null)? preDeriveKeys:
+                ConversionUtils.toBoolean( System.getenv( MPModelConstants.env_preDeriveKeys ) ).orElse( false );
+    }
+
+    public void setPreDeriveKeys(final boolean preDeriveKeys) {
+        this.preDeriveKeys = preDeriveKeys;
+        setChanged();
+    }
+
+    /**
+     * @return The milliseconds to wait for more changes to a user before writing them out.
+     */
+    public long saveDelay() {
+        return (saveDelay != null)? saveDelay: 500;
+    }
+
+    public void setSaveDelay(final long saveDelay) {
+        this.saveDelay = saveDelay;
+        setChanged();
+    }
+
+    /**
+     * @return The most milliseconds that a change to a user may wait to be written out, no matter how many changes follow it.
+     */
+    public long saveMaxDelay() {
+        return (saveMaxDelay != null)? saveMaxDelay: 5000;
+    }
+
+    public void setSaveMaxDelay(final long saveMaxDelay) {
+        this.saveMaxDelay = saveMaxDelay;
+        setChanged();
+    }
+
+    /**
+     * @return The amount of earlier versions to keep of a user's file when it is written out.
+     */
+    public int saveBackups() {
+        return (saveBackups != null)? saveBackups: 0;
+    }
+
+    public void setSaveBackups(final int saveBackups) {
+        this.saveBackups = saveBackups;
+        setChanged();
+    }
+
+    /**
+     * @return {@code true} if the users should be brought up to date when other processes change their files.
+     */
+    public boolean watchUsers() {
+        return (watchUsers != null)? watchUsers: true;
+    }
+
+    public void setWatchUsers(final boolean watchUsers) {
+        this.watchUsers = watchUsers;
+        setChanged();
+    }
+
     public static File rcDir() {
         String rcDir = System.getenv( MPModelConstants.env_rcDir );
         if (rcDir != null)
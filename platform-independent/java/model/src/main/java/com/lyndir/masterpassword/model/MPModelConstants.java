@@ -39,6 +39,11 @@ public final class MPModelConstants {
      */
     public static final String env_checkUpdates = "MPW_CHECKUPDATES";
 
+    /**
+     * mpw: derive the master keys for all algorithm versions in use by a user's sites right after authentication.
+     */
+    public static final String env_preDeriveKeys = "MPW_PREDERIVEKEYS";
+
     /* Algorithm */
 
     public static final DateTimeFormatter dateTimeFormatter = ISODateTimeFormat.dateTimeNoMillis().withZoneUTC();
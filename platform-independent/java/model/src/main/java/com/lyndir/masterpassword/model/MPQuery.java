@@ -5,7 +5,9 @@ import static com.lyndir.lhunath.opal.system.util.StringUtils.*;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -15,11 +17,19 @@ import javax.annotation.Nullable;
  */
 public class MPQuery {
 
+    /**
+     * The amount of keys from which a query is matched against them in parallel, if there are processors to share the work.  Benchmarks
+     * and tests set it to compare matching in sequence and in parallel.
+     */
+    static int parallelThreshold = (ForkJoinPool.getCommonPoolParallelism() > 1)? 8192: Integer.MAX_VALUE;
+
     @Nonnull
     private final String query;
+    private final long   mask;
 
     public MPQuery(@Nullable final String query) {
         this.query = (query != null)? query: "";
+        this.mask = mask( this.query );
     }
 
     @Nonnull
@@ -35,14 +45,37 @@ public class MPQuery {
         Result<V> result = Result.noneOf( value, key );
         if (query.isEmpty())
             return Optional.of( result );
-        if (key.length() == 0)
-            return Optional.empty();
 
+        result.score = match( key, result );
+        return (result.score < 0)? Optional.empty(): Optional.of( result );
+    }
+
+    /**
+     * @return How well this query matched against the given {@code key}, see {@link Result#getScore()}, or {@code -1} if it didn't.
+     */
+    int score(final CharSequence key) {
+        return query.isEmpty()? 0: match( key, null );
+    }
+
+    private int match(final CharSequence key, @Nullable final Result<?> result) {
         // Consume query and key characters until one of them runs out, recording any matches against the result's key.
-        int q = 0, k = 0;
+        int q = 0, k = 0, score = 0, lastMatch = -1;
         while ((q < query.length()) && (k < key.length())) {
             if (query.charAt( q ) == key.charAt( k )) {
-                result.keyMatchedAt( k );
+                if (result != null)
+                    result.keyMatchedAt( k );
+
+                score += 1;
+                if (k == 0)
+                    score += 4;
+                else {
+                    if (lastMatch == (k - 1))
+                        score += 2;
+                    if (!Character.isLetterOrDigit( key.charAt( k - 1 ) ) ||
+                        (Character.isLowerCase( key.charAt( k - 1 ) ) && Character.isUpperCase( key.charAt( k ) )))
+                        score += 3;
+                }
+                lastMatch = k;
                 ++q;
             }
 
@@ -50,15 +83,35 @@ public class MPQuery {
         }
 
         // If the match against the query broke before the end of the query, it failed.
-        return (q < query.length())? Optional.empty(): Optional.of( result );
+        return (q < query.length())? -1: score;
+    }
+
+    /**
+     * @return {@code true} if the given query is contained wholly inside this one, so that any key this query matches against was
+     * matched by the given query as well.
+     */
+    public boolean refines(final MPQuery query) {
+        return query.score( this.query ) >= 0;
     }
 
     /**
      * @return Results for values that matched against the query, in the original values' order.
      */
     @Nonnull
+    @SuppressWarnings("unchecked")
     public <V> ImmutableCollection<Result<? extends V>> find(final Iterable<? extends V> values,
                                                              final Function<V, CharSequence> valueToKey) {
+        // Many values are split over the common fork/join pool, from a snapshot that can be split without walking it.
+        if ((values instanceof Collection) && isParallel( ((Collection<?>) values).size() )) {
+            List<? extends V> snapshot = (values instanceof RandomAccess)? (List<? extends V>) values:
+                    new ArrayList<>( (Collection<? extends V>) values );
+
+            return ImmutableList.copyOf( snapshot.parallelStream()
+                                                 .map( value -> matches( value, valueToKey.apply( value ) ) )
+                                                 .filter( Optional::isPresent ).map( Optional::get )
+                                                 .collect( Collectors.toList() ) );
+        }
+
         ImmutableList.Builder<Result<? extends V>> results = ImmutableList.builder();
         for (final V value : values)
             matches( value, valueToKey.apply( value ) ).ifPresent( results::add );
@@ -66,17 +119,71 @@ public class MPQuery {
         return results.build();
     }
 
+    /**
+     * @return {@code true} if this query should be matched against the given amount of keys in parallel: when there are enough of them
+     * to make it worth splitting the work, see {@link #parallelThreshold}.
+     */
+    boolean isParallel(final int keys) {
+        return !query.isEmpty() && (keys >= parallelThreshold);
+    }
+
+    /**
+     * @return {@code true} if the key holds every character of the query, as told by their bitmaps from {@link #mask(CharSequence)}.
+     */
+    boolean mayMatch(final long keyMask) {
+        return (keyMask & mask) == mask;
+    }
+
+    /**
+     * @return A bitmap of the characters in the key.  Letters and digits have a bit of their own, other characters share two.
+     */
+    static long mask(final CharSequence key) {
+        long mask = 0;
+        for (int k = 0; k < key.length(); ++k) {
+            char c = key.charAt( k );
+            if ((c >= 'a') && (c <= 'z'))
+                mask |= 1L << (c - 'a');
+            else if ((c >= 'A') && (c <= 'Z'))
+                mask |= 1L << (26 + c - 'A');
+            else if ((c >= '0') && (c <= '9'))
+                mask |= 1L << (52 + c - '0');
+            else
+                mask |= 1L << (62 + (c & 1));
+        }
+
+        return mask;
+    }
+
+    /**
+     * Ranks the values that matched against a query, see {@link MPQueryIndex#rank(MPQuery, Ranking, Comparator, int)}.
+     */
+    @FunctionalInterface
+    public interface Ranking<V> {
+
+        /**
+         * @param score How well the query matched against the value's key, see {@link Result#getScore()}.
+         *
+         * @return The value's rank, higher ranks come first.
+         */
+        int rank(V value, int score);
+    }
+
+
     public static class Result<V> {
 
         private final V            value;
         private final CharSequence key;
-        private final boolean[]    keyMatches;
+        // Which of the key's characters matched: the first 64 as bits of a long, any others in a set of their own.
+        private       long         keyMatches;
+        @Nullable
+        private       BitSet       moreKeyMatches;
+        private       int          score;
+        @Nullable
+        private       String       keyAsHTML;
 
         Result(final V value, final CharSequence key) {
             this.value = value;
             this.key = key;
-
-            keyMatches = new boolean[key.length()];
         }
 
         public static <T> Result<T> noneOf(final T value, final CharSequence key) {
@@ -85,7 +192,12 @@ public class MPQuery {
 
         public static <T> Result<T> allOf(final T value, final CharSequence key) {
             Result<T> result = noneOf( value, key );
-            Arrays.fill( result.keyMatches, true );
+            result.keyMatches = (key.length() >= Long.SIZE)? -1L: ((1L << key.length()) - 1);
+            if (key.length() > Long.SIZE) {
+                result.moreKeyMatches = new BitSet( key.length() );
+                result.moreKeyMatches.set( Long.SIZE, key.length() );
+            }
+
             return result;
         }
 
@@ -99,21 +211,29 @@ public class MPQuery {
             return key;
         }
 
+        /**
+         * @return The key, with the characters that matched marked by {@code <u>}.  It is made once, the first time it is asked for.
+         */
         public String getKeyAsHTML() {
-            return getKeyAsHTML( "u" );
+            String html = keyAsHTML;
+            if (html == null)
+                keyAsHTML = html = getKeyAsHTML( "u" );
+
+            return html;
         }
 
         @SuppressWarnings({ "MagicCharacter", "HardcodedFileSeparator" })
         public String getKeyAsHTML(final String mark) {
             String        closeMark = mark.contains( " " )? mark.substring( 0, mark.indexOf( ' ' ) ): mark;
-            StringBuilder html      = new StringBuilder();
+            StringBuilder html      = new StringBuilder( key.length() + 16 );
             boolean       marked    = false;
 
             for (int i = 0; i < key.length(); ++i) {
-                if (keyMatches[i] && !marked) {
+                boolean keyMatch = isKeyMatchedAt( i );
+                if (keyMatch && !marked) {
                     html.append( '<' ).append( mark ).append( '>' );
                     marked = true;
-                } else if (!keyMatches[i] && marked) {
+                } else if (!keyMatch && marked) {
                     html.append( '<' ).append( '/' ).append( closeMark ).append( '>' );
                     marked = false;
                 }
@@ -127,20 +247,45 @@ public class MPQuery {
             return html.toString();
         }
 
+        /**
+         * @return How well the query matched against the key: each matched character counts, and more so when it follows the previous
+         * match, starts a word or starts the key.
+         */
+        public int getScore() {
+            return score;
+        }
+
+        /**
+         * @return A new array that tells for each of the key's characters whether it matched.
+         */
         public boolean[] getKeyMatches() {
-            return keyMatches.clone();
+            boolean[] matches = new boolean[key.length()];
+            for (int k = 0; k < matches.length; ++k)
+                matches[k] = isKeyMatchedAt( k );
+
+            return matches;
         }
 
-        public boolean isExact() {
-            for (final boolean keyMatch : keyMatches)
-                if (!keyMatch)
-                    return false;
+        public boolean isKeyMatchedAt(final int k) {
+            if (k < Long.SIZE)
+                return (keyMatches & (1L << k)) != 0;
 
-            return true;
+            return (moreKeyMatches != null) && moreKeyMatches.get( k );
+        }
+
+        public boolean isExact() {
+            int matches = Long.bitCount( keyMatches ) + ((moreKeyMatches != null)? moreKeyMatches.cardinality(): 0);
+            return matches == key.length();
         }
 
         private void keyMatchedAt(final int k) {
-            keyMatches[k] = true;
+            if (k < Long.SIZE)
+                keyMatches |= 1L << k;
+            else {
+                if (moreKeyMatches == null)
+                    moreKeyMatches = new BitSet( key.length() );
+                moreKeyMatches.set( k );
+            }
         }
 
         @Override
@@ -149,7 +294,8 @@ public class MPQuery {
                 return false;
 
             Result<?> r = (Result<?>) o;
-            return Objects.equals( value, r.value ) && Objects.equals( key, r.key ) && Arrays.equals( keyMatches, r.keyMatches );
+            return Objects.equals( value, r.value ) && Objects.equals( key, r.key ) && (keyMatches == r.keyMatches) &&
+                   Objects.equals( moreKeyMatches, r.moreKeyMatches );
         }
 
         @Override
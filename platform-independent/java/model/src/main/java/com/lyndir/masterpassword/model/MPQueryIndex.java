@@ -0,0 +1,225 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+package com.lyndir.masterpassword.model;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+
+/**
+ * Keeps the keys of a changing collection of values ready to be searched: each key is held with a bitmap of its characters, so that
+ * a query rules out the keys that lack any of its characters before it looks for itself in them.
+ *
+ * <p>The index remembers which keys matched the last query.  When the next query refines it, as it does while the user types, only those
+ * keys are looked at again.</p>
+ *
+ * <p>The index is updated as values are added and removed, and can be used from any thread.  Values are told apart by their key: a
+ * value whose key is already in the index is not added.</p>
+ *
+ * @author lhunath, 2026-10-18
+ */
+public class MPQueryIndex<V> {
+
+    private final Function<? super V, ? extends CharSequence> valueToKey;
+    private final Map<String, Integer>                        slots  = new HashMap<>();
+    private       Object[]                                    values = new Object[16];
+    private       CharSequence[]                              keys   = new CharSequence[16];
+    private       long[]                                      masks  = new long[16];
+    private       int                                         size;
+
+    // The keys that matched the last query, if the index didn't change since.
+    @Nullable
+    private MPQuery lastQuery;
+    private int[]   matchedSlots  = new int[16];
+    private int[]   matchedScores = new int[16];
+    private int     matched;
+
+    public MPQueryIndex(final Function<? super V, ? extends CharSequence> valueToKey) {
+        this.valueToKey = valueToKey;
+    }
+
+    public synchronized void add(final V value) {
+        CharSequence key = valueToKey.apply( value );
+        if (slots.containsKey( key.toString() ))
+            return;
+
+        if (size == values.length) {
+            values = Arrays.copyOf( values, size * 2 );
+            keys = Arrays.copyOf( keys, size * 2 );
+            masks = Arrays.copyOf( masks, size * 2 );
+        }
+
+        values[size] = value;
+        keys[size] = key;
+        masks[size] = MPQuery.mask( key );
+        slots.put( key.toString(), size++ );
+        lastQuery = null;
+    }
+
+    public synchronized void remove(final CharSequence key) {
+        Integer slot = slots.remove( key.toString() );
+        if (slot == null)
+            return;
+        lastQuery = null;
+
+        // Fill the hole with the last value.
+        if (slot != --size) {
+            values[slot] = values[size];
+            keys[slot] = keys[size];
+            masks[slot] = masks[size];
+            slots.put( keys[slot].toString(), slot );
+        }
+        values[size] = null;
+        keys[size] = null;
+    }
+
+    /**
+     * @return Results for the values that matched against the query, in no particular order.
+     */
+    @Nonnull
+    public synchronized List<MPQuery.Result<V>> find(final MPQuery query) {
+        List<MPQuery.Result<V>> results = new ArrayList<>( match( query ) );
+        for (int m = 0; m < matched; ++m)
+            query.matches( value( matchedSlots[m] ), keys[matchedSlots[m]] ).ifPresent( results::add );
+
+        return results;
+    }
+
+    /**
+     * Select the best results for the values that matched against the query.  Only the results that make the selection are made.
+     *
+     * @param ranking The rank of each value that matched, higher ranks come first.
+     * @param order   The order of values that have the same rank.
+     * @param limit   The most results to return.
+     *
+     * @return Results for the best {@code limit} values that matched against the query, best first.
+     */
+    @Nonnull
+    public synchronized List<MPQuery.Result<V>> rank(final MPQuery query, final MPQuery.Ranking<? super V> ranking,
+                                                     final Comparator<? super V> order, final int limit) {
+        if (limit <= 0)
+            return new ArrayList<>();
+
+        // Keep the best slots in a heap that has the worst of them on top, ready to make way for a better one.
+        Comparator<Ranked> best = Comparator.<Ranked>comparingInt( ranked -> -ranked.rank )
+                .thenComparing( ranked -> value( ranked.slot ), order );
+        PriorityQueue<Ranked> heap = new PriorityQueue<>( limit, best.reversed() );
+        for (int m = 0, count = match( query ); m < count; ++m) {
+            int slot = matchedSlots[m];
+            int rank = ranking.rank( value( slot ), matchedScores[m] );
+            if (heap.size() < limit)
+                heap.add( new Ranked( slot, rank ) );
+            else {
+                Ranked worst = heap.peek();
+                if ((rank > worst.rank) || ((rank == worst.rank) && (order.compare( value( slot ), value( worst.slot ) ) < 0))) {
+                    heap.poll();
+                    worst.slot = slot;
+                    worst.rank = rank;
+                    heap.add( worst );
+                }
+            }
+        }
+
+        List<Ranked> selection = new ArrayList<>( heap );
+        selection.sort( best );
+
+        List<MPQuery.Result<V>> results = new ArrayList<>( selection.size() );
+        for (final Ranked selected : selection)
+            query.matches( value( selected.slot ), keys[selected.slot] ).ifPresent( results::add );
+
+        return results;
+    }
+
+    /**
+     * Find the keys that match the query, into {@link #matchedSlots} and {@link #matchedScores}.  Many keys are matched in parallel, in
+     * the common fork/join pool.
+     *
+     * @return The amount of keys that matched.
+     */
+    private int match(final MPQuery query) {
+        // A query that refines the last one can only match keys that matched the last one.
+        boolean refine     = (lastQuery != null) && query.refines( lastQuery );
+        int     candidates = refine? matched: size;
+        if (matchedSlots.length < size) {
+            matchedSlots = Arrays.copyOf( matchedSlots, values.length );
+            matchedScores = new int[values.length];
+        }
+
+        if (!query.isParallel( candidates ))
+            matched = match( query, refine, 0, candidates );
+        else {
+            // Match chunks of the candidates in parallel, then close the gaps that their misses left, in order.
+            int   chunkSize = Math.max( MPQuery.parallelThreshold / 2, 1 ), chunks = ((candidates - 1) / chunkSize) + 1;
+            int[] counts    = IntStream.range( 0, chunks ).parallel().map(
+                    chunk -> match( query, refine, chunk * chunkSize, Math.min( candidates, (chunk + 1) * chunkSize ) ) ).toArray();
+
+            matched = 0;
+            for (int chunk = 0; chunk < chunks; ++chunk) {
+                System.arraycopy( matchedSlots, chunk * chunkSize, matchedSlots, matched, counts[chunk] );
+                System.arraycopy( matchedScores, chunk * chunkSize, matchedScores, matched, counts[chunk] );
+                matched += counts[chunk];
+            }
+        }
+        lastQuery = query;
+
+        return matched;
+    }
+
+    /**
+     * Match the candidates in {@code [from, to)}, moving the ones that match to the start of that range.
+     *
+     * @return The amount of candidates that matched.
+     */
+    private int match(final MPQuery query, final boolean refine, final int from, final int to) {
+        int count = 0;
+        for (int c = from; c < to; ++c) {
+            int slot = refine? matchedSlots[c]: c;
+            if (!query.mayMatch( masks[slot] ))
+                continue;
+
+            int score = query.score( keys[slot] );
+            if (score >= 0) {
+                matchedSlots[from + count] = slot;
+                matchedScores[from + count++] = score;
+            }
+        }
+
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(final int slot) {
+        return (V) values[slot];
+    }
+
+
+    private static final class Ranked {
+
+        int slot;
+        int rank;
+
+        Ranked(final int slot, final int rank) {
+            this.slot = slot;
+            this.rank = rank;
+        }
+    }
+}
@@ -105,6 +105,19 @@ public interface MPUser<S extends MPSite<?>> extends Comparable<MPUser<?>> {
     @Nonnull
     Collection<S> getSites();
 
+    /**
+     * @return Results for the sites whose name matched against the query, in the order of {@link #getSites()}.
+     */
+    @Nonnull
+    Collection<MPQuery.Result<? extends S>> findSites(MPQuery query);
+
+    /**
+     * @return Results for the best {@code limit} sites whose name matched against the query, best first.  Without a query, these are
+     * the first {@code limit} sites of {@link #getSites()}.
+     */
+    @Nonnull
+    Collection<MPQuery.Result<? extends S>> findSites(MPQuery query, int limit);
+
     void addListener(Listener listener);
 
     void removeListener(Listener listener);
@@ -1,7 +1,8 @@
 package com.lyndir.masterpassword.model.impl;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import com.lyndir.lhunath.opal.system.logging.Logger;
+import java.util.*;
+import java.util.concurrent.*;
 
 
 /**
@@ -9,7 +10,33 @@ import java.util.concurrent.Executors;
  */
 public abstract class Changeable {
 
-    private static final ExecutorService changeExecutor = Executors.newSingleThreadExecutor();
+    private static final Logger                       logger         = Logger.get( Changeable.class );
+    // Changes are applied in order for each owner, and in parallel for different owners.
+    private static final ThreadPoolExecutor           changeExecutor = new ThreadPoolExecutor(
+            Math.min( 4, Runtime.getRuntime().availableProcessors() ), Math.min( 4, Runtime.getRuntime().availableProcessors() ),
+            10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread( runnable, "mpw-change" );
+        thread.setDaemon( true );
+        return thread;
+    } );
+    private static final Map<Object, Queue<Runnable>> changeQueues   = new IdentityHashMap<>();
+
+    static {
+        changeExecutor.allowCoreThreadTimeOut( true );
+
+        // Don't lose the changes that are still on their way to disk when the process exits.
+        Runtime.getRuntime().addShutdownHook( new Thread( () -> {
+            try {
+                if (!awaitChanges( 5, TimeUnit.SECONDS ))
+                    logger.wrn( "Timed out applying changes before exiting." );
+            }
+            catch (final InterruptedException e) {
+                logger.wrn( e, "Interrupted while applying changes before exiting." );
+            }
+
+            MPSaveScheduler.get().flush();
+        }, "mpw-change-shutdown" ) );
+    }
 
     private final Object   mutex    = new Object();
     private       Grouping grouping = Grouping.APPLY;
@@ -28,7 +55,7 @@ public abstract class Changeable {
                 return;
         }
 
-        changeExecutor.submit( () -> {
+        change( getChangeOwner(), () -> {
             synchronized (mutex) {
                 if (grouping != Grouping.APPLY)
                     return;
@@ -39,6 +66,63 @@ public abstract class Changeable {
         } );
     }
 
+    /**
+     * @return The object whose changes this object's changes are ordered with, usually the user it belongs to.
+     */
+    protected Object getChangeOwner() {
+        return this;
+    }
+
+    private static void change(final Object owner, final Runnable change) {
+        synchronized (changeQueues) {
+            Queue<Runnable> changeQueue = changeQueues.get( owner );
+            if (changeQueue != null) {
+                // The owner's changes are already being applied, this one is applied after them.
+                changeQueue.add( change );
+                return;
+            }
+
+            changeQueues.put( owner, new ArrayDeque<>() );
+        }
+
+        changeExecutor.execute( () -> {
+            for (Runnable nextChange = change; nextChange != null; ) {
+                try {
+                    nextChange.run();
+                }
+                catch (final RuntimeException e) {
+                    logger.err( e, "While applying change for: %s", owner );
+                }
+
+                synchronized (changeQueues) {
+                    nextChange = changeQueues.get( owner ).poll();
+                    if (nextChange == null) {
+                        changeQueues.remove( owner );
+                        changeQueues.notifyAll();
+                    }
+                }
+            }
+        } );
+    }
+
+    /**
+     * Wait for all changes that have been made to be applied.
+     *
+     * @return {@code false} if there were still changes being applied when the timeout expired.
+     */
+    static boolean awaitChanges(final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos( timeout );
+
+        synchronized (changeQueues) {
+            for (long remaining; !changeQueues.isEmpty(); changeQueues.wait( TimeUnit.NANOSECONDS.toMillis( remaining ) + 1 ))
+                if ((remaining = deadline - System.nanoTime()) <= 0)
+                    return false;
+        }
+
+        return true;
+    }
+
     public void beginChanges() {
         synchronized (mutex) {
             grouping = Grouping.BATCH;
@@ -0,0 +1,114 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+package com.lyndir.masterpassword.model.impl;
+
+import com.lyndir.lhunath.opal.system.logging.Logger;
+import com.lyndir.masterpassword.model.MPConfig;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+
+/**
+ * Replaces a file as a whole: the new content is written to a temporary file beside it, synced to disk, and then moved over the
+ * file.  Should the write fail or the process die, the file keeps its old content.
+ *
+ * <p>If {@link MPConfig#saveBackups()} is set, the file's old content is kept in up to that many numbered backups beside it, the
+ * most recent being {@code [file].1}.</p>
+ *
+ * @author lhunath, 2026-10-18
+ */
+final class MPAtomicFile {
+
+    private static final Logger logger = Logger.get( MPAtomicFile.class );
+
+    private MPAtomicFile() {
+    }
+
+    static void write(final File file, final Content content)
+            throws IOException {
+        Path target = file.getAbsoluteFile().toPath(), directory = target.getParent();
+        Path temp   = Files.createTempFile( directory, '.' + target.getFileName().toString(), ".tmp" );
+
+        try {
+            // The temporary file is only readable by its owner, a file that already exists keeps its own permissions.
+            if (Files.exists( target ))
+                try {
+                    Files.setPosixFilePermissions( temp, Files.getPosixFilePermissions( target ) );
+                }
+                catch (final UnsupportedOperationException ignored) {
+                }
+
+            try (FileChannel channel = FileChannel.open( temp, StandardOpenOption.WRITE );
+                 OutputStream stream = new BufferedOutputStream( Channels.newOutputStream( channel ) )) {
+                content.writeTo( stream );
+                stream.flush();
+                channel.force( true );
+            }
+
+            backup( target, MPConfig.get().saveBackups() );
+
+            try {
+                Files.move( temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+            }
+            catch (final AtomicMoveNotSupportedException e) {
+                logger.wrn( e, "Cannot atomically replace: %s", target );
+                Files.move( temp, target, StandardCopyOption.REPLACE_EXISTING );
+            }
+
+            // Make the move itself durable.  Not all platforms can open a directory for syncing.
+            try (FileChannel channel = FileChannel.open( directory, StandardOpenOption.READ )) {
+                channel.force( true );
+            }
+            catch (final IOException ignored) {
+            }
+        }
+        finally {
+            Files.deleteIfExists( temp );
+        }
+    }
+
+    private static void backup(final Path target, final int backups)
+            throws IOException {
+        if ((backups <= 0) || !Files.exists( target ))
+            return;
+
+        Files.deleteIfExists( backupOf( target, backups ) );
+        for (int backup = backups - 1; backup > 0; --backup)
+            if (Files.exists( backupOf( target, backup ) ))
+                Files.move( backupOf( target, backup ), backupOf( target, backup + 1 ) );
+
+        Files.copy( target, backupOf( target, 1 ), StandardCopyOption.COPY_ATTRIBUTES );
+    }
+
+    private static Path backupOf(final Path target, final int backup) {
+        return target.resolveSibling( target.getFileName().toString() + '.' + backup );
+    }
+
+    @FunctionalInterface
+    interface Content {
+
+        /**
+         * Write out the whole content, without closing the stream.
+         */
+        void writeTo(OutputStream stream)
+                throws IOException;
+    }
+}
@@ -80,6 +80,11 @@ public abstract class MPBasicQuestion extends Changeable implements MPQuestion {
         return getSite().getResult( MPKeyPurpose.Recovery, getKeyword(), null, getType(), state );
     }
 
+    @Override
+    protected Object getChangeOwner() {
+        return (site instanceof Changeable)? ((Changeable) site).getChangeOwner(): site;
+    }
+
     @Override
     protected void onChanged() {
         if (site instanceof Changeable)
@@ -199,6 +199,11 @@ public abstract class MPBasicSite<U extends MPUser<?>, Q extends MPQuestion> ext
         return Collections.unmodifiableCollection( questions );
     }
 
+    @Override
+    protected Object getChangeOwner() {
+        return (user instanceof Changeable)? ((Changeable) user).getChangeOwner(): user;
+    }
+
     @Override
     protected void onChanged() {
         if (user instanceof Changeable)
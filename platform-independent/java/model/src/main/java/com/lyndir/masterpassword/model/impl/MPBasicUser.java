@@ -20,6 +20,7 @@ package com.lyndir.masterpassword.model.impl;
 
 import static com.lyndir.lhunath.opal.system.util.StringUtils.*;
 
+import com.google.common.collect.Iterables;
 import com.lyndir.lhunath.opal.system.CodeUtils;
 import com.lyndir.lhunath.opal.system.logging.Logger;
 import com.lyndir.masterpassword.*;
@@ -45,7 +46,8 @@ public abstract class MPBasicUser<S extends MPBasicSite<?, ?>> extends Changeabl
     @Nullable
     protected     MPMasterKey masterKey;
 
-    private final Set<S> sites = new TreeSet<>();
+    private final Set<S>          sites     = new TreeSet<>();
+    private final MPQueryIndex<S> siteIndex = new MPQueryIndex<>( MPSite::getSiteName );
 
     protected MPBasicUser(final String fullName, final MPAlgorithm algorithm) {
         this( 0, fullName, algorithm );
@@ -175,18 +177,36 @@ public abstract class MPBasicUser<S extends MPBasicSite<?, ?>> extends Changeabl
     @Nonnull
     @Override
     public S addSite(final S site) {
-        sites.add( site );
+        return addSite( site, true );
+    }
 
-        setChanged();
+    /**
+     * @param changed {@code false} if the change only brings the user up to date with what was stored, so it needn't be stored.
+     */
+    protected S addSite(final S site, final boolean changed) {
+        if (sites.add( site ))
+            siteIndex.add( site );
+
+        if (changed)
+            setChanged();
         return site;
     }
 
     @Override
     public boolean deleteSite(final MPSite<?> site) {
+        return deleteSite( site, true );
+    }
+
+    /**
+     * @param changed {@code false} if the change only brings the user up to date with what was stored, so it needn't be stored.
+     */
+    protected boolean deleteSite(final MPSite<?> site, final boolean changed) {
         if (!sites.remove( site ))
             return false;
+        siteIndex.remove( site.getSiteName() );
 
-        setChanged();
+        if (changed)
+            setChanged();
         return true;
     }
 
@@ -196,6 +216,37 @@ public abstract class MPBasicUser<S extends MPBasicSite<?, ?>> extends Changeabl
         return Collections.unmodifiableCollection( sites );
     }
 
+    @Nonnull
+    @Override
+    public Collection<MPQuery.Result<? extends S>> findSites(final MPQuery query) {
+        if (query.getQuery().isEmpty())
+            return query.find( getSites(), MPSite::getSiteName );
+
+        List<MPQuery.Result<S>> results = siteIndex.find( query );
+        results.sort( Comparator.comparing( MPQuery.Result::getValue ) );
+
+        return Collections.<MPQuery.Result<? extends S>>unmodifiableList( results );
+    }
+
+    @Nonnull
+    @Override
+    public Collection<MPQuery.Result<? extends S>> findSites(final MPQuery query, final int limit) {
+        if (query.getQuery().isEmpty())
+            return query.find( Iterables.limit( getSites(), limit ), MPSite::getSiteName );
+
+        return Collections.<MPQuery.Result<? extends S>>unmodifiableList(
+                siteIndex.rank( query, this::rankSite, Comparator.naturalOrder(), limit ) );
+    }
+
+    /**
+     * @param score How well the query matched against the site's name, see {@link MPQuery.Result#getScore()}.
+     *
+     * @return The rank of the site in the results of {@link #findSites(MPQuery, int)}, higher ranks come first.
+     */
+    protected int rankSite(final S site, final int score) {
+        return score;
+    }
+
     @Override
     public void addListener(final Listener listener) {
         listeners.add( listener );
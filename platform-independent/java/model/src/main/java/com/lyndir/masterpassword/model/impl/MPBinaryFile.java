@@ -0,0 +1,252 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+package com.lyndir.masterpassword.model.impl;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+
+
+/**
+ * The binary format: a versioned header that can be read on its own, followed by the user's sites.
+ *
+ * <pre>
+ * file     = "MPWB" version:byte header:block sites
+ * block    = length:varint byte*
+ * header   = redacted:bool fullName:string keyID:string? algorithm:varint avatar:varint defaultType:varint? lastUsed:varint
+ *            hidePasswords:bool
+ * sites    = count:varint site*
+ * site     = name:string algorithm:varint counter:varint type:varint password:string? loginType:varint loginName:string?
+ *            url:string? uses:varint lastUsed:varint questions:varint question*
+ * question = keyword:string type:varint answer:string?
+ * </pre>
+ *
+ * <p>Varints are unsigned LEB128.  Strings are UTF-8, prefixed with their length in bytes.  Optional values ({@code ?}) are written
+ * as their value or length plus one, zero meaning there is none.  Times are milliseconds since the epoch.</p>
+ *
+ * @author lhunath, 2026-10-18
+ */
+final class MPBinaryFile {
+
+    static final byte[] magic   = { 'M', 'P', 'W', 'B' };
+    static final int    version = 1;
+
+    private MPBinaryFile() {
+    }
+
+    /**
+     * Checks the magic and version at the start of the file's content.
+     *
+     * @return The content after the version, starting with the header block.
+     */
+    static Input read(final ByteBuffer content)
+            throws MPMarshalException {
+        if (content.remaining() <= magic.length)
+            throw new MPMarshalException( "Not a binary user file." );
+        for (final byte b : magic)
+            if (content.get() != b)
+                throw new MPMarshalException( "Not a binary user file." );
+
+        int fileVersion = content.get() & 0xFF;
+        if (fileVersion != version)
+            throw new MPMarshalException( "Unsupported binary format version: " + fileVersion );
+
+        return new Input( content.slice() );
+    }
+
+    /**
+     * Reads only the magic, version and header block from the start of the stream, leaving the sites after it unread.
+     *
+     * @return The header block.
+     */
+    static Input readHeader(final InputStream stream)
+            throws IOException, MPMarshalException {
+        byte[] start = new byte[magic.length + 1];
+        if (ByteStreams.read( stream, start, 0, start.length ) < start.length)
+            throw new MPMarshalException( "Not a binary user file." );
+        read( ByteBuffer.wrap( start ) );
+
+        long length = 0;
+        for (int shift = 0, b = 0x80; (b & 0x80) != 0; shift += 7) {
+            if (shift >= 64)
+                throw new MPMarshalException( "Malformed varint in binary data." );
+            if ((b = stream.read()) < 0)
+                throw new MPMarshalException( "Unexpected end of binary data." );
+
+            length |= (long) (b & 0x7F) << shift;
+        }
+        if ((length < 0) || (length > Integer.MAX_VALUE))
+            throw new MPMarshalException( "Value out of range in binary data: " + length );
+
+        // Read through a limit rather than into an array of the given length, which a corrupt file could make huge.
+        byte[] block = ByteStreams.toByteArray( ByteStreams.limit( stream, length ) );
+        if (block.length < length)
+            throw new MPMarshalException( "Unexpected end of binary data." );
+
+        return new Input( ByteBuffer.wrap( block ) );
+    }
+
+    static final class Output {
+
+        private byte[] bytes = new byte[4096];
+        private int    length;
+
+        void writeMagic() {
+            write( magic, 0, magic.length );
+            writeByte( version );
+        }
+
+        void writeByte(final int value) {
+            if (length == bytes.length)
+                bytes = Arrays.copyOf( bytes, bytes.length * 2 );
+
+            bytes[length++] = (byte) value;
+        }
+
+        void writeBoolean(final boolean value) {
+            writeByte( value? 1: 0 );
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte( (int) ((value & 0x7F) | 0x80) );
+                value >>>= 7;
+            }
+
+            writeByte( (int) value );
+        }
+
+        void writeString(final String value) {
+            byte[] utf8 = value.getBytes( Charsets.UTF_8 );
+            writeVarint( utf8.length );
+            write( utf8, 0, utf8.length );
+        }
+
+        void writeNullableString(@Nullable final String value) {
+            if (value == null) {
+                writeVarint( 0 );
+                return;
+            }
+
+            byte[] utf8 = value.getBytes( Charsets.UTF_8 );
+            writeVarint( utf8.length + 1L );
+            write( utf8, 0, utf8.length );
+        }
+
+        void writeBlock(final Output block) {
+            writeVarint( block.length );
+            write( block.bytes, 0, block.length );
+        }
+
+        void writeTo(final OutputStream stream)
+                throws IOException {
+            stream.write( bytes, 0, length );
+        }
+
+        private void write(final byte[] source, final int offset, final int count) {
+            if ((length + count) > bytes.length)
+                bytes = Arrays.copyOf( bytes, Math.max( bytes.length * 2, length + count ) );
+
+            System.arraycopy( source, offset, bytes, length, count );
+            length += count;
+        }
+    }
+
+
+    static final class Input {
+
+        private final ByteBuffer buffer;
+
+        Input(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        int readByte()
+                throws MPMarshalException {
+            if (!buffer.hasRemaining())
+                throw new MPMarshalException( "Unexpected end of binary data." );
+
+            return buffer.get() & 0xFF;
+        }
+
+        boolean readBoolean()
+                throws MPMarshalException {
+            return readByte() != 0;
+        }
+
+        long readVarint()
+                throws MPMarshalException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+
+            throw new MPMarshalException( "Malformed varint in binary data." );
+        }
+
+        int readInt()
+                throws MPMarshalException {
+            long value = readVarint();
+            if ((value < 0) || (value > Integer.MAX_VALUE))
+                throw new MPMarshalException( "Value out of range in binary data: " + value );
+
+            return (int) value;
+        }
+
+        String readString()
+                throws MPMarshalException {
+            return readString( readInt() );
+        }
+
+        @Nullable
+        String readNullableString()
+                throws MPMarshalException {
+            int length = readInt();
+            return (length == 0)? null: readString( length - 1 );
+        }
+
+        Input readBlock()
+                throws MPMarshalException {
+            int length = readInt();
+            if (length > buffer.remaining())
+                throw new MPMarshalException( "Unexpected end of binary data." );
+
+            // Through Buffer, since Java 8's ByteBuffer lacks the covariant overrides that newer compilers link against.
+            ByteBuffer block = buffer.slice();
+            ((Buffer) block).limit( length );
+            ((Buffer) buffer).position( buffer.position() + length );
+            return new Input( block );
+        }
+
+        private String readString(final int length)
+                throws MPMarshalException {
+            if (length > buffer.remaining())
+                throw new MPMarshalException( "Unexpected end of binary data." );
+
+            return MPFileContent.readString( buffer, length );
+        }
+    }
+}
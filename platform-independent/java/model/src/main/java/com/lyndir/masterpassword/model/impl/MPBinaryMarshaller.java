@@ -0,0 +1,117 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+package com.lyndir.masterpassword.model.impl;
+
+import com.lyndir.masterpassword.*;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Writes the binary format, see {@link MPBinaryFile}.
+ *
+ * <p>Like the JSON format, a protected file holds the states of the content that can be exported, and a visible file holds the
+ * content of every site in the clear.</p>
+ *
+ * @author lhunath, 2026-10-18
+ */
+public class MPBinaryMarshaller implements MPMarshaller {
+
+    @Override
+    public void marshall(final MPFileUser user)
+            throws IOException, MPKeyUnavailableException, MPMarshalException, MPAlgorithmException {
+        if (!user.isComplete())
+            throw new IllegalStateException( "Cannot marshall an incomplete user: " + user );
+
+        boolean redacted = user.getContentMode().isRedacted();
+
+        MPBinaryFile.Output header = new MPBinaryFile.Output();
+        header.writeBoolean( redacted );
+        header.writeString( user.getFullName() );
+        header.writeNullableString( user.getKeyID() );
+        header.writeVarint( user.getAlgorithm().version().toInt() );
+        header.writeVarint( user.getAvatar() );
+        header.writeVarint( user.getPreferences().getDefaultType().getType() + 1L );
+        header.writeVarint( user.getLastUsed().getMillis() );
+        header.writeBoolean( user.getPreferences().isHidePasswords() );
+
+        // Gather the content of the sites first, so that a visible file's results can be derived together.
+        List<MPFileSite>           sites     = new ArrayList<>( user.getSites() );
+        List<List<MPFileQuestion>> questions = new ArrayList<>( sites.size() );
+        String[]                   passwords = new String[sites.size()], loginNames = new String[sites.size()];
+        List<String[]>             answers   = new ArrayList<>( sites.size() );
+        MPResultBatch              results   = redacted? null: new MPResultBatch( user.getMasterKey() );
+        for (int s = 0; s < sites.size(); ++s) {
+            MPFileSite           site          = sites.get( s );
+            List<MPFileQuestion> siteQuestions = new ArrayList<>( site.getQuestions() );
+            String[]             siteAnswers   = new String[siteQuestions.size()];
+            questions.add( siteQuestions );
+            answers.add( siteAnswers );
+
+            int siteIndex = s;
+            if (results != null) {
+                results.requestResult( site, password -> passwords[siteIndex] = password );
+                results.requestLogin( site, loginName -> loginNames[siteIndex] = loginName );
+                for (int q = 0; q < siteQuestions.size(); ++q) {
+                    int questionIndex = q;
+                    results.requestAnswer( site, siteQuestions.get( q ), answer -> siteAnswers[questionIndex] = answer );
+                }
+            } else {
+                if (site.getResultType().supportsTypeFeature( MPSiteFeature.ExportContent ))
+                    passwords[s] = site.getResultState();
+                if (site.getLoginType().supportsTypeFeature( MPSiteFeature.ExportContent ))
+                    loginNames[s] = site.getLoginState();
+                for (int q = 0; q < siteQuestions.size(); ++q)
+                    if (siteQuestions.get( q ).getType().supportsTypeFeature( MPSiteFeature.ExportContent ))
+                        siteAnswers[q] = siteQuestions.get( q ).getAnswerState();
+            }
+        }
+        if (results != null)
+            results.derive();
+
+        MPBinaryFile.Output content = new MPBinaryFile.Output();
+        content.writeMagic();
+        content.writeBlock( header );
+        content.writeVarint( sites.size() );
+        for (int s = 0; s < sites.size(); ++s) {
+            MPFileSite site = sites.get( s );
+            content.writeString( site.getSiteName() );
+            content.writeVarint( site.getAlgorithm().version().toInt() );
+            content.writeVarint( site.getCounter().longValue() );
+            content.writeVarint( site.getResultType().getType() );
+            content.writeNullableString( passwords[s] );
+            content.writeVarint( site.getLoginType().getType() );
+            content.writeNullableString( loginNames[s] );
+            content.writeNullableString( site.getUrl() );
+            content.writeVarint( site.getUses() );
+            content.writeVarint( site.getLastUsed().getMillis() );
+
+            List<MPFileQuestion> siteQuestions = questions.get( s );
+            content.writeVarint( siteQuestions.size() );
+            for (int q = 0; q < siteQuestions.size(); ++q) {
+                content.writeString( siteQuestions.get( q ).getKeyword() );
+                content.writeVarint( siteQuestions.get( q ).getType().getType() );
+                content.writeNullableString( answers.get( s )[q] );
+            }
+        }
+
+        MPAtomicFile.write( user.getFile(), content::writeTo );
+    }
+}
@@ -0,0 +1,169 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+package com.lyndir.masterpassword.model.impl;
+
+import com.google.common.primitives.UnsignedInteger;
+import com.lyndir.masterpassword.*;
+import com.lyndir.masterpassword.model.MPIncorrectMasterPasswordException;
+import java.io.*;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.joda.time.Instant;
+
+
+/**
+ * Reads the binary format, see {@link MPBinaryFile}.
+ *
+ * <p>{@link #readUser(File)} only reads the header at the start of the file.  {@link #readSites(MPFileUser)} reads the whole file
+ * into memory, see {@link MPFileContent}.</p>
+ *
+ * @author lhunath, 2026-10-18
+ */
+public class MPBinaryUnmarshaller implements MPUnmarshaller {
+
+    @Nonnull
+    @Override
+    public MPFileUser readUser(@Nonnull final File file)
+            throws IOException, MPMarshalException {
+        try (InputStream stream = new BufferedInputStream( new FileInputStream( file ) )) {
+            return new Header( MPBinaryFile.readHeader( stream ) ).toUser( file );
+        }
+    }
+
+    @Override
+    public void readSites(final MPFileUser user)
+            throws IOException, MPMarshalException, MPIncorrectMasterPasswordException, MPKeyUnavailableException, MPAlgorithmException {
+        user.ignoreChanges();
+
+        if (user.getFile().exists()) {
+            MPBinaryFile.Input content  = MPBinaryFile.read( MPFileContent.read( user.getFile() ) );
+            boolean            redacted = new Header( content.readBlock() ).redacted;
+
+            for (int sites = content.readInt(); sites > 0; --sites)
+                readSite( content, user, redacted );
+        }
+
+        user.setComplete();
+        user.endChanges();
+    }
+
+    private static void readSite(final MPBinaryFile.Input content, final MPFileUser user, final boolean redacted)
+            throws MPMarshalException {
+        String              siteName  = content.readString();
+        MPAlgorithm.Version algorithm = toAlgorithm( content.readInt() );
+        UnsignedInteger     counter   = toCounter( content.readVarint() );
+        MPResultType        type      = toType( content.readInt() );
+        String              password  = content.readNullableString();
+        MPResultType        loginType = toType( content.readInt() );
+        String              loginName = content.readNullableString();
+        String              url       = content.readNullableString();
+        int                 uses      = content.readInt();
+        Instant             lastUsed  = new Instant( content.readVarint() );
+
+        MPFileSite site = new MPFileSite( user, siteName, algorithm, counter, type, redacted? password: null,
+                                          loginType, redacted? loginName: null, url, uses, lastUsed );
+        if (!redacted) {
+            if (password != null)
+                site.readSitePassword( password );
+            if (loginName != null)
+                site.readLoginName( loginName );
+        }
+
+        for (int questions = content.readInt(); questions > 0; --questions) {
+            String       keyword      = content.readString();
+            MPResultType questionType = toType( content.readInt() );
+            String       answer       = content.readNullableString();
+
+            String         answerState   = redacted? answer: null;
+            MPPendingState pendingAnswer = (!redacted && (answer != null))? site.readAnswer( keyword, questionType, answer ): null;
+            site.readQuestion( () -> {
+                MPFileQuestion question = new MPFileQuestion( site, keyword, questionType, answerState );
+                if (pendingAnswer != null)
+                    question.readAnswer( pendingAnswer );
+
+                return question;
+            } );
+        }
+
+        user.addSite( site );
+    }
+
+    // The model's lookups fail with unchecked exceptions, corrupt content must fail with a marshalling exception instead.
+
+    private static MPAlgorithm.Version toAlgorithm(final int version)
+            throws MPMarshalException {
+        if (version >= MPAlgorithm.Version.values().length)
+            throw new MPMarshalException( "Unknown algorithm version in binary data: " + version );
+
+        return MPAlgorithm.Version.fromInt( version );
+    }
+
+    private static UnsignedInteger toCounter(final long counter)
+            throws MPMarshalException {
+        if ((counter < 0) || (counter > UnsignedInteger.MAX_VALUE.longValue()))
+            throw new MPMarshalException( "Counter out of range in binary data: " + counter );
+
+        return UnsignedInteger.valueOf( counter );
+    }
+
+    private static MPResultType toType(final int type)
+            throws MPMarshalException {
+        for (final MPResultType resultType : MPResultType.values())
+            if (resultType.getType() == type)
+                return resultType;
+
+        throw new MPMarshalException( "Unknown result type in binary data: " + type );
+    }
+
+    /**
+     * The header block.
+     */
+    private static final class Header {
+
+        final boolean             redacted;
+        final String              fullName;
+        @Nullable
+        final String              keyID;
+        final MPAlgorithm.Version algorithm;
+        final int                 avatar;
+        @Nullable
+        final MPResultType        defaultType;
+        final Instant             lastUsed;
+        final boolean             hidePasswords;
+
+        Header(final MPBinaryFile.Input header)
+                throws MPMarshalException {
+            redacted = header.readBoolean();
+            fullName = header.readString();
+            keyID = header.readNullableString();
+            algorithm = toAlgorithm( header.readInt() );
+            avatar = header.readInt();
+            int type = header.readInt();
+            defaultType = (type == 0)? null: toType( type - 1 );
+            lastUsed = new Instant( header.readVarint() );
+            hidePasswords = header.readBoolean();
+        }
+
+        MPFileUser toUser(final File file) {
+            return new MPFileUser( fullName, keyID, algorithm, avatar, defaultType, lastUsed, hidePasswords,
+                                   redacted? MPMarshaller.ContentMode.PROTECTED: MPMarshaller.ContentMode.VISIBLE,
+                                   MPMarshalFormat.Binary, file );
+        }
+    }
+}
@@ -0,0 +1,101 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+
+package com.lyndir.masterpassword.model.impl;
+
+import com.google.common.base.Charsets;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import javax.annotation.Nullable;
+
+
+/**
+ * Reads user files into memory in one go, for the unmarshallers to decode their sites from.  Reading just the header of a user
+ * streams the start of the file instead.
+ *
+ * <p>The content is copied into a buffer of our own rather than mapped: other processes, such as the command-line client, rewrite
+ * user files in place, and a mapping of a file that is truncated under it fails outside of any I/O call.</p>
+ *
+ * @author lhunath, 2026-10-18
+ */
+final class MPFileContent {
+
+    private MPFileContent() {
+    }
+
+    /**
+     * @return The file's content, positioned at its start.
+     */
+    static ByteBuffer read(final File file)
+            throws IOException {
+        return ByteBuffer.wrap( Files.readAllBytes( file.toPath() ) );
+    }
+
+    /**
+     * Decodes a UTF-8 string from the buffer's next {@code length} bytes.
+     */
+    static String readString(final ByteBuffer buffer, final int length) {
+        String value;
+        if (buffer.hasArray())
+            value = new String( buffer.array(), buffer.arrayOffset() + buffer.position(), length, Charsets.UTF_8 );
+        else {
+            byte[] bytes = new byte[length];
+            buffer.duplicate().get( bytes );
+            value = new String( bytes, Charsets.UTF_8 );
+        }
+
+        // Java 8 has no ByteBuffer#position(int), only Buffer's.
+        ((Buffer) buffer).position( buffer.position() + length );
+        return value;
+    }
+
+    /**
+     * Splits a buffer into lines, terminated by {@code \n}, {@code \r} or {@code \r\n} as {@link java.io.BufferedReader} does.
+     */
+    static final class LineReader {
+
+        private final ByteBuffer buffer;
+
+        LineReader(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return {@code null} once the buffer has no more lines.
+         */
+        @Nullable
+        String readLine() {
+            if (!buffer.hasRemaining())
+                return null;
+
+            int end = buffer.position();
+            while ((end < buffer.limit()) && (buffer.get( end ) != '\n') && (buffer.get( end ) != '\r'))
+                ++end;
+
+            String line = readString( buffer, end - buffer.position() );
+            if (buffer.hasRemaining() && (buffer.get() == '\r') && buffer.hasRemaining() && (buffer.get( buffer.position() ) == '\n'))
+                buffer.get();
+
+            return line;
+        }
+    }
+}
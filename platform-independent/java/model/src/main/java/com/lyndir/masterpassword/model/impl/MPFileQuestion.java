@@ -30,7 +30,9 @@ import javax.annotation.Nullable;
 public class MPFileQuestion extends MPBasicQuestion {
 
     @Nullable
-    private String answerState;
+    private String         answerState;
+    @Nullable
+    private MPPendingState pendingAnswerState;
 
     @SuppressWarnings("TypeMayBeWeakened")
     public MPFileQuestion(final MPFileSite site, final String keyword,
@@ -41,7 +43,14 @@ public class MPFileQuestion extends MPBasicQuestion {
     }
 
     @Nullable
-    public String getAnswerState() {
+    public String getAnswerState()
+            throws MPKeyUnavailableException, MPAlgorithmException {
+        MPPendingState pendingState = pendingAnswerState;
+        if (pendingState != null) {
+            answerState = pendingState.encrypt();
+            pendingAnswerState = null;
+        }
+
         return answerState;
     }
 
@@ -49,13 +58,33 @@ public class MPFileQuestion extends MPBasicQuestion {
     @Override
     public String getAnswer()
             throws MPKeyUnavailableException, MPAlgorithmException {
-        return getAnswer( answerState );
+        return getAnswer( getAnswerState() );
+    }
+
+    /**
+     * Set the answer as read in the clear from the user's file, without encrypting it into its state until it is needed.
+     */
+    void readAnswer(final MPPendingState answer) {
+        pendingAnswerState = answer;
+    }
+
+    /**
+     * Let go of the answer read from the user's file if it was wiped before it could be encrypted, see
+     * {@link MPFileSite#wipePendingStates()}.
+     */
+    void forgetLostAnswer() {
+        if ((pendingAnswerState != null) && pendingAnswerState.isLost())
+            pendingAnswerState = null;
     }
 
     public void setAnswer(final MPResultType type, @Nullable final String answer)
             throws MPKeyUnavailableException, MPAlgorithmException {
         setType( type );
 
+        if (pendingAnswerState != null) {
+            pendingAnswerState.discard();
+            pendingAnswerState = null;
+        }
         if (answer == null)
             this.answerState = null;
         else
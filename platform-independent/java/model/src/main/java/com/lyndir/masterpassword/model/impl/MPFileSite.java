@@ -21,7 +21,8 @@ package com.lyndir.masterpassword.model.impl;
 import com.google.common.primitives.UnsignedInteger;
 import com.lyndir.masterpassword.*;
 import com.lyndir.masterpassword.model.MPSite;
-import java.util.Objects;
+import java.util.*;
+import java.util.function.Supplier;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import org.joda.time.Instant;
@@ -44,6 +45,17 @@ public class MPFileSite extends MPBasicSite<MPFileUser, MPFileQuestion> {
     @Nullable
     private String loginState;
 
+    // Read from the user's file, but left until they are first needed.
+    @Nullable
+    private MPPendingState                 pendingResultState;
+    @Nullable
+    private MPPendingState                 pendingLoginState;
+    @Nullable
+    private List<Supplier<MPFileQuestion>> pendingQuestions;
+    // All clear content of the site and its questions that is yet to be encrypted.
+    @Nullable
+    private List<MPPendingState>           pendingStates;
+
     public MPFileSite(final MPFileUser user, final String name) {
         this( user, name, null, null, null, null, null, null,
               null, 0, new Instant() );
@@ -89,8 +101,12 @@ public class MPFileSite extends MPBasicSite<MPFileUser, MPFileQuestion> {
     public void use() {
         uses++;
         lastUsed = new Instant();
-        getUser().use();
-        setChanged();
+        getUser().use( this );
+    }
+
+    void setUsage(final int uses, final ReadableInstant lastUsed) {
+        this.uses = uses;
+        this.lastUsed = lastUsed;
     }
 
     @Nullable
@@ -110,14 +126,32 @@ public class MPFileSite extends MPBasicSite<MPFileUser, MPFileQuestion> {
     }
 
     @Nullable
-    public String getResultState() {
+    public String getResultState()
+            throws MPKeyUnavailableException, MPAlgorithmException {
+        MPPendingState pendingState = pendingResultState;
+        if (pendingState != null) {
+            resultState = pendingState.encrypt();
+            pendingResultState = null;
+        }
+
         return resultState;
     }
 
+    /**
+     * Set the site's password as read in the clear from the user's file, without encrypting it into its state until it is needed.
+     */
+    void readSitePassword(final String password) {
+        pendingResultState = pendingState( MPKeyPurpose.Authentication, null, getCounter(), getResultType(), password );
+    }
+
     public void setSitePassword(final MPResultType resultType, @Nullable final String password)
             throws MPKeyUnavailableException, MPAlgorithmException {
         setResultType( resultType );
 
+        if (pendingResultState != null) {
+            pendingResultState.discard();
+            pendingResultState = null;
+        }
         if (password == null)
             this.resultState = null;
         else
@@ -128,14 +162,32 @@ public class MPFileSite extends MPBasicSite<MPFileUser, MPFileQuestion> {
     }
 
     @Nullable
-    public String getLoginState() {
+    public String getLoginState()
+            throws MPKeyUnavailableException, MPAlgorithmException {
+        MPPendingState pendingState = pendingLoginState;
+        if (pendingState != null) {
+            loginState = pendingState.encrypt();
+            pendingLoginState = null;
+        }
+
         return loginState;
     }
 
+    /**
+     * Set the site's login name as read in the clear from the user's file, without encrypting it into its state until it is needed.
+     */
+    void readLoginName(final String loginName) {
+        pendingLoginState = pendingState( MPKeyPurpose.Identification, null, null, getLoginType(), loginName );
+    }
+
     public void setLoginName(@Nonnull final MPResultType loginType, @Nullable final String loginName)
             throws MPKeyUnavailableException, MPAlgorithmException {
         setLoginType( loginType );
 
+        if (pendingLoginState != null) {
+            pendingLoginState.discard();
+            pendingLoginState = null;
+        }
         if (loginName == null)
             this.loginState = null;
         else
@@ -151,6 +203,110 @@ public class MPFileSite extends MPBasicSite<MPFileUser, MPFileQuestion> {
         return addQuestion( new MPFileQuestion( this, keyword, null, null ) );
     }
 
+    @Nonnull
+    @Override
+    public MPFileQuestion addQuestion(final MPFileQuestion question) {
+        readQuestions();
+
+        return super.addQuestion( question );
+    }
+
+    @Override
+    public boolean deleteQuestion(final MPFileQuestion question) {
+        readQuestions();
+
+        return super.deleteQuestion( question );
+    }
+
+    @Nonnull
+    @Override
+    public Collection<MPFileQuestion> getQuestions() {
+        readQuestions();
+
+        return super.getQuestions();
+    }
+
+    /**
+     * Add a question read from the user's file, which is only created once the site's questions are first needed.
+     */
+    void readQuestion(final Supplier<MPFileQuestion> question) {
+        if (pendingQuestions == null)
+            pendingQuestions = new ArrayList<>( 1 );
+
+        pendingQuestions.add( question );
+    }
+
+    /**
+     * An answer to one of the site's questions as read in the clear from the user's file, see
+     * {@link MPFileQuestion#readAnswer(MPPendingState)}.
+     */
+    MPPendingState readAnswer(final String keyword, final MPResultType type, final String answer) {
+        return pendingState( MPKeyPurpose.Recovery, keyword, null, type, answer );
+    }
+
+    private synchronized MPPendingState pendingState(final MPKeyPurpose keyPurpose, @Nullable final String keyContext,
+                                                     @Nullable final UnsignedInteger counter, final MPResultType type,
+                                                     final String content) {
+        MPPendingState pendingState = new MPPendingState( this, keyPurpose, keyContext, counter, type, content );
+        if (pendingStates == null)
+            pendingStates = new ArrayList<>( 2 );
+        pendingStates.add( pendingState );
+
+        return pendingState;
+    }
+
+    synchronized void forgetPendingState(final MPPendingState pendingState) {
+        if (pendingStates != null)
+            pendingStates.remove( pendingState );
+    }
+
+    /**
+     * Encrypt all clear content of the site and its questions that was read from the user's file, so that it is held no longer.
+     */
+    synchronized void encryptPendingStates()
+            throws MPKeyUnavailableException, MPAlgorithmException {
+        if (pendingStates == null)
+            return;
+
+        for (final MPPendingState pendingState : pendingStates)
+            pendingState.encrypt();
+        pendingStates = null;
+    }
+
+    /**
+     * Wipe all clear content of the site and its questions that was read from the user's file and not yet encrypted.
+     */
+    synchronized void wipePendingStates() {
+        if (pendingStates == null)
+            return;
+
+        for (final MPPendingState pendingState : pendingStates)
+            pendingState.wipe();
+        pendingStates = null;
+
+        // What was wiped is no longer read from the file: the site and its questions go without it.
+        if ((pendingResultState != null) && pendingResultState.isLost())
+            pendingResultState = null;
+        if ((pendingLoginState != null) && pendingLoginState.isLost())
+            pendingLoginState = null;
+        readQuestions();
+        for (final MPFileQuestion question : super.getQuestions())
+            question.forgetLostAnswer();
+    }
+
+    private synchronized void readQuestions() {
+        if (pendingQuestions == null)
+            return;
+
+        // The questions were read from the user's file, so adding them doesn't change the site.
+        List<Supplier<MPFileQuestion>> questions = pendingQuestions;
+        pendingQuestions = null;
+        ignoreChanges();
+        for (final Supplier<MPFileQuestion> question : questions)
+            super.addQuestion( question.get() );
+        endChanges();
+    }
+
     @Override
     public int compareTo(@Nonnull final MPSite<?> o) {
         int comparison = (o instanceof MPFileSite)? ((MPFileSite) o).getLastUsed().compareTo( getLastUsed() ): 0;
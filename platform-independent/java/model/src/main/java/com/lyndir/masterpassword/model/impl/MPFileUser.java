@@ -24,8 +24,13 @@ import com.lyndir.masterpassword.model.*;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import org.joda.time.DateTimeConstants;
 import org.joda.time.Instant;
 import org.joda.time.ReadableInstant;
 
@@ -36,7 +41,22 @@ import org.joda.time.ReadableInstant;
 @SuppressWarnings("ComparableImplementedButEqualsNotOverridden")
 public class MPFileUser extends MPBasicUser<MPFileSite> {
 
-    private static final Logger logger = Logger.get( MPFileUser.class );
+    private static final Logger   logger                = Logger.get( MPFileUser.class );
+    // Derivations this bounded pool rejects are not lost: they run on the first thread that needs their key.
+    private static final Executor keyDerivationExecutor = new ThreadPoolExecutor(
+            0, Math.min( MPAlgorithm.Version.values().length, Runtime.getRuntime().availableProcessors() ),
+            10, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+        Thread thread = new Thread( runnable, "mpw-key-derivation" );
+        thread.setDaemon( true );
+        return thread;
+    } );
+    // Encrypts clear content read from users' files, one site at a time, after the user is authenticated.
+    private static final Executor pendingStateExecutor  = new ThreadPoolExecutor(
+            0, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread( runnable, "mpw-pending-states" );
+        thread.setDaemon( true );
+        return thread;
+    } );
 
     @Nullable
     private String                   keyID;
@@ -46,16 +66,33 @@ public class MPFileUser extends MPBasicUser<MPFileSite> {
     private ReadableInstant          lastUsed;
     private boolean                  complete;
 
+    // Changes since the user's file was last written, either as journal records or as a need to write out the whole file.
+    private final List<String> journalRecords = new ArrayList<>();
+    private       boolean      rewrite;
+
+    // The user's file and journal as the user last read or wrote them, to recognize changes made to them by others.
+    @Nullable
+    private volatile List<Object> fileVersion;
+
     private final MPFileUserPreferences preferences;
 
     @Nullable
     public static MPFileUser load(final File file)
             throws IOException, MPMarshalException {
-        for (final MPMarshalFormat format : MPMarshalFormat.values())
-            if (format.matches( file ))
-                return format.unmarshaller().readUser( file );
+        MPMarshalFormat format = MPMarshalFormat.forFile( file );
+        if (format == null)
+            return null;
+
+        List<Object> fileVersion = fileVersion( file );
+        MPFileUser   user        = format.unmarshaller().readUser( file );
+        user.fileVersion = fileVersion;
 
-        return null;
+        // Uses of the user's sites since their file was written are only in its journal.
+        ReadableInstant lastUsed = MPJournal.lastUsed( file );
+        if ((lastUsed != null) && lastUsed.isAfter( user.lastUsed ))
+            user.lastUsed = lastUsed;
+
+        return user;
     }
 
     public MPFileUser(final String fullName, final File location) {
@@ -142,6 +179,34 @@ public class MPFileUser extends MPBasicUser<MPFileSite> {
         setChanged();
     }
 
+    void use(final MPFileSite site) {
+        lastUsed = site.getLastUsed();
+        journal( MPJournal.use( site ) );
+    }
+
+    /**
+     * Record a change in the user's journal, or have the whole file written out if there is no record for it.
+     */
+    void journal(@Nullable final String record) {
+        if (record == null) {
+            setChanged();
+            return;
+        }
+
+        synchronized (journalRecords) {
+            journalRecords.add( record );
+        }
+        super.setChanged();
+    }
+
+    @Override
+    public void setChanged() {
+        synchronized (journalRecords) {
+            rewrite = true;
+        }
+        super.setChanged();
+    }
+
     protected boolean isComplete() {
         return complete;
     }
@@ -161,6 +226,14 @@ public class MPFileUser extends MPBasicUser<MPFileSite> {
         migrateTo( file.getParentFile(), format );
     }
 
+    /**
+     * Migrate the user's file to the given format, unless it is already in that format or a newer one.
+     */
+    public void upgradeTo(final MPMarshalFormat format) {
+        if (this.format.compareTo( format ) < 0)
+            migrateTo( format );
+    }
+
     public void migrateTo(final File path) {
         migrateTo( path, format );
     }
@@ -177,18 +250,23 @@ public class MPFileUser extends MPBasicUser<MPFileSite> {
         File            oldFile   = file, newFile = new File( path, getFullName() + newFormat.fileSuffix() );
 
         // If the format hasn't changed, migrate by moving the file: the contents doesn't need to change.
-        if ((oldFormat == newFormat) && !oldFile.equals( newFile ) && oldFile.exists())
+        if ((oldFormat == newFormat) && !oldFile.equals( newFile ) && oldFile.exists()) {
             if (!oldFile.renameTo( newFile ))
                 logger.wrn( "Couldn't move %s to %s for migration.", oldFile, newFile );
+            else if (MPJournal.fileOf( oldFile ).exists() && !MPJournal.fileOf( oldFile ).renameTo( MPJournal.fileOf( newFile ) ))
+                logger.wrn( "Couldn't move journal of %s to %s for migration.", oldFile, newFile );
+        }
 
         this.format = newFormat;
         this.file = newFile;
 
         // If the format has changed, save the new format into the new file and delete the old file.  Revert if the user cannot be saved.
         if ((oldFormat != newFormat) && !oldFile.equals( newFile ))
-            if (save()) {
+            if (save( true )) {
                 if (oldFile.exists() && !oldFile.delete())
                     logger.wrn( "Couldn't delete %s after migration.", oldFile );
+                if (MPJournal.fileOf( oldFile ).exists() && !MPJournal.fileOf( oldFile ).delete())
+                    logger.wrn( "Couldn't delete journal of %s after migration.", oldFile );
             } else {
                 this.format = oldFormat;
                 this.file = oldFile;
@@ -200,6 +278,7 @@ public class MPFileUser extends MPBasicUser<MPFileSite> {
             throws MPIncorrectMasterPasswordException, MPKeyUnavailableException, MPAlgorithmException {
         super.authenticate( masterKey );
 
+        List<Object> fileVersion = fileVersion( file );
         try {
             getFormat().unmarshaller().readSites( this );
         }
@@ -207,21 +286,99 @@ public class MPFileUser extends MPBasicUser<MPFileSite> {
             logger.err( e, "While reading sites on authentication." );
         }
 
+        try {
+            MPJournal.replay( this );
+        }
+        catch (final IOException e) {
+            logger.err( e, "While replaying journal on authentication." );
+        }
+
+        // The user now holds what their file and journal hold, there is nothing left to write out.
+        synchronized (journalRecords) {
+            journalRecords.clear();
+            rewrite = false;
+        }
+        this.fileVersion = fileVersion;
+
         if (keyID == null) {
             keyID = masterKey.getKeyID( getAlgorithm() );
             setChanged();
         }
+
+        if (MPConfig.get().preDeriveKeys())
+            preDeriveKeys( masterKey );
+        encryptPendingStates( masterKey );
+    }
+
+    /**
+     * Encrypt the clear content that was read from a visible file in the background, so that it isn't held for longer than needed.
+     */
+    private void encryptPendingStates(final MPMasterKey masterKey) {
+        List<MPFileSite> sites = new ArrayList<>( getSites() );
+        pendingStateExecutor.execute( () -> {
+            try {
+                for (final MPFileSite site : sites)
+                    if (masterKey.isValid())
+                        site.encryptPendingStates();
+            }
+            catch (final MPKeyUnavailableException ignored) {
+                // The user was invalidated, which takes care of the rest.
+            }
+            catch (final MPAlgorithmException e) {
+                logger.wrn( e, "While encrypting clear content of: %s", this );
+            }
+        } );
+    }
+
+    /**
+     * Derive the master keys for the other algorithm versions that this user's sites use, so that opening a site of an older
+     * version doesn't have to wait for its key.
+     */
+    private void preDeriveKeys(final MPMasterKey masterKey) {
+        Set<MPAlgorithm.Version> versions = EnumSet.noneOf( MPAlgorithm.Version.class );
+        for (final MPFileSite site : getSites())
+            versions.add( site.getAlgorithm().version() );
+        versions.remove( getAlgorithm().version() );
+
+        masterKey.deriveAsync( versions, keyDerivationExecutor ).exceptionally( t -> {
+            if (!(t.getCause() instanceof MPKeyUnavailableException))
+                logger.wrn( t, "While deriving master keys for: %s", this );
+            return null;
+        } );
     }
 
     /**
      * @return {@code false} if the user is not fully loaded (complete), authenticated, or an issue prevented the marshalling.
      */
     public boolean save() {
+        return save( false );
+    }
+
+    /**
+     * @param rewrite {@code true} to write out the whole file, even if the changes could be appended to the user's journal.
+     *
+     * @return {@code false} if the user is not fully loaded (complete), authenticated, or an issue prevented the marshalling.
+     */
+    private boolean save(final boolean rewrite) {
         if (!isComplete())
             return false;
 
+        List<String> records;
+        boolean      marshall;
+        synchronized (journalRecords) {
+            records = new ArrayList<>( journalRecords );
+            marshall = rewrite || this.rewrite;
+            journalRecords.clear();
+            this.rewrite = false;
+        }
+
         try {
-            getFormat().marshaller().marshall( this );
+            if (marshall || !MPJournal.append( this, records )) {
+                getFormat().marshaller().marshall( this );
+                MPJournal.delete( this );
+            }
+            fileVersion = fileVersion( file );
+
             return true;
         }
         catch (final MPKeyUnavailableException e) {
@@ -231,6 +388,11 @@ public class MPFileUser extends MPBasicUser<MPFileSite> {
             logger.err( e, "Unable to write out changes for user: %s", this );
         }
 
+        // The changes are written out in full once the user can be saved.
+        synchronized (journalRecords) {
+            this.rewrite = true;
+        }
+
         return false;
     }
 
@@ -247,9 +409,139 @@ public class MPFileUser extends MPBasicUser<MPFileSite> {
         return addSite( new MPFileSite( this, siteName ) );
     }
 
+    @Override
+    protected int rankSite(final MPFileSite site, final int score) {
+        // Sites that were used often and recently are likelier to be the one that is looked for.
+        long age   = System.currentTimeMillis() - site.getLastUsed().getMillis();
+        int  usage = Math.min( 6, Integer.SIZE - Integer.numberOfLeadingZeros( site.getUses() ) );
+        if (age < DateTimeConstants.MILLIS_PER_DAY)
+            usage += 4;
+        else if (age < DateTimeConstants.MILLIS_PER_WEEK)
+            usage += 2;
+        else if (age < (DateTimeConstants.MILLIS_PER_DAY * 30L))
+            usage += 1;
+
+        return score + usage;
+    }
+
+    /**
+     * Bring the user up to date with their file after another process changed it, without signing them out.
+     *
+     * <p>Changes to the user that weren't written out yet are not lost: uses of its sites are applied again over the file's, other
+     * changes are written out over the file's instead.</p>
+     *
+     * @param fileUser The user as read anew from their file.
+     *
+     * @return {@code false} if the user kept their own changes over the file's.
+     */
+    boolean refresh(final MPFileUser fileUser)
+            throws MPIncorrectMasterPasswordException, MPKeyUnavailableException, MPAlgorithmException {
+        boolean rewrite;
+        synchronized (journalRecords) {
+            rewrite = this.rewrite;
+        }
+        if (rewrite) {
+            MPSaveScheduler.get().flush( this );
+            if (!isFileChanged()) {
+                logger.wrn( "Wrote out changes over those made by another process to: %s", file );
+                return false;
+            }
+        }
+
+        // The uses are written out again once the user is up to date, until then there is nothing to write.
+        List<String> records;
+        MPSaveScheduler.get().cancel( this );
+        synchronized (journalRecords) {
+            records = new ArrayList<>( journalRecords );
+        }
+
+        MPMasterKey masterKey = getMasterKey();
+        ignoreChanges();
+        setAvatar( fileUser.getAvatar() );
+        setAlgorithm( fileUser.getAlgorithm() );
+        getPreferences().setDefaultType( fileUser.getPreferences().getDefaultType() );
+        getPreferences().setHidePasswords( fileUser.getPreferences().isHidePasswords() );
+        contentMode = fileUser.getContentMode();
+        lastUsed = fileUser.getLastUsed();
+        for (final MPFileSite site : new ArrayList<>( getSites() ))
+            deleteSite( site, false );
+        endChanges();
+
+        authenticate( masterKey );
+
+        if (!records.isEmpty()) {
+            ReadableInstant recordsLastUsed = MPJournal.apply( this, records );
+            if ((recordsLastUsed != null) && recordsLastUsed.isAfter( lastUsed ))
+                lastUsed = recordsLastUsed;
+
+            synchronized (journalRecords) {
+                journalRecords.addAll( records );
+            }
+            super.setChanged();
+        }
+
+        return true;
+    }
+
+    /**
+     * @return {@code true} if the user's file or journal changed since the user last read or wrote them.
+     */
+    boolean isFileChanged() {
+        return !fileVersion( file ).equals( fileVersion );
+    }
+
+    /**
+     * Remember the user's file and journal as they are now, for when the user was read without {@link #load(File)}.
+     */
+    void updateFileVersion() {
+        fileVersion = fileVersion( file );
+    }
+
+    private static List<Object> fileVersion(final File file) {
+        List<Object> version = new ArrayList<>();
+        for (final File versionFile : new File[]{ file, MPJournal.fileOf( file ) })
+            try {
+                BasicFileAttributes attributes = Files.readAttributes( versionFile.toPath(), BasicFileAttributes.class );
+                version.add( Arrays.asList( attributes.fileKey(), attributes.size(), attributes.lastModifiedTime() ) );
+            }
+            catch (final IOException ignored) {
+                version.add( null );
+            }
+
+        return version;
+    }
+
+    /**
+     * Write out the user's file in full if it has a journal, so that the file alone holds all of the user's changes.  A file that
+     * another process changed since is left to them.
+     */
+    void compact() {
+        if (file.exists() && MPJournal.fileOf( file ).exists() && !isFileChanged())
+            save( true );
+    }
+
+    @Override
+    public void invalidate() {
+        // Changes that are still waiting to be written out may need the master key, as does writing out the journal.
+        MPSaveScheduler.get().flush( this );
+        compact();
+
+        // Clear content must not outlive the master key: encrypt what is still pending, or else let it go.
+        for (final MPFileSite site : getSites())
+            try {
+                site.encryptPendingStates();
+            }
+            catch (final MPKeyUnavailableException | MPAlgorithmException e) {
+                logger.wrn( e, "Dropping clear content that couldn't be encrypted for: %s", site );
+                site.wipePendingStates();
+            }
+
+        super.invalidate();
+    }
+
     @Override
     protected void onChanged() {
-        save();
+        MPSaveScheduler.get().schedule( this );
 
         super.onChanged();
     }
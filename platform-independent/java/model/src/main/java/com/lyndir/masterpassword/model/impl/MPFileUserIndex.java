@@ -0,0 +1,169 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+
+package com.lyndir.masterpassword.model.impl;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.lyndir.lhunath.opal.system.logging.Logger;
+import com.lyndir.masterpassword.MPAlgorithm;
+import com.lyndir.masterpassword.MPResultType;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import org.joda.time.Instant;
+
+
+/**
+ * Remembers the header of every user file in a directory, so that reading the directory's users only needs to read the files that
+ * changed since.
+ *
+ * <p>An entry is used for as long as its file and the file's journal have the size and modification time that they had when the
+ * entry was made.  The journal records the uses of the user's sites, and with them when the user was last used.</p>
+ *
+ * @author lhunath, 2026-10-18
+ */
+final class MPFileUserIndex extends MPJSONAnyObject {
+
+    private static final Logger logger   = Logger.get( MPFileUserIndex.class );
+    private static final String fileName = "users.index.json";
+
+    // Entries by the name of their user file.
+    ConcurrentMap<String, Entry> users = new ConcurrentHashMap<>();
+
+    private volatile boolean changed;
+
+    /**
+     * @return The index of the directory, or an empty index if it has none or it can't be read.
+     */
+    static MPFileUserIndex read(final File directory) {
+        File file = new File( directory, fileName );
+        if (file.exists())
+            try {
+                return objectMapper.readValue( file, MPFileUserIndex.class );
+            }
+            catch (final IOException e) {
+                logger.wrn( e, "Ignoring unreadable user index: %s", file );
+            }
+
+        return new MPFileUserIndex();
+    }
+
+    /**
+     * Read the header of a user file, from its entry if the file and its journal didn't change since.
+     *
+     * @return {@code null} if the file isn't a user file.
+     */
+    @Nullable
+    MPFileUser load(final File file)
+            throws IOException, MPMarshalException {
+        MPMarshalFormat format = MPMarshalFormat.forFile( file );
+        if (format == null)
+            return null;
+
+        File  journal     = MPJournal.fileOf( file );
+        long  size        = file.length(), modified = file.lastModified();
+        long  journalSize = journal.length(), journalModified = journal.lastModified();
+        Entry entry       = users.get( file.getName() );
+        if ((entry != null) && (entry.size == size) && (entry.modified == modified) &&
+            (entry.journal_size == journalSize) && (entry.journal_modified == journalModified) &&
+            (entry.full_name != null) && (entry.algorithm != null)) {
+            MPFileUser user = new MPFileUser(
+                    entry.full_name, entry.key_id, entry.algorithm, entry.avatar, entry.default_type,
+                    new Instant( entry.last_used ), entry.hide_passwords,
+                    entry.redacted? MPMarshaller.ContentMode.PROTECTED: MPMarshaller.ContentMode.VISIBLE, format, file );
+            user.updateFileVersion();
+
+            return user;
+        }
+
+        MPFileUser user = MPFileUser.load( file );
+        if (user != null) {
+            users.put( file.getName(), new Entry( size, modified, journalSize, journalModified, user ) );
+            changed = true;
+        }
+
+        return user;
+    }
+
+    /**
+     * Forget the entries of all but the given files.
+     */
+    void retain(final Collection<File> files) {
+        if (users.keySet().retainAll( files.stream().map( File::getName ).collect( Collectors.toSet() ) ))
+            changed = true;
+    }
+
+    /**
+     * Write out the index to the directory, if it changed.
+     */
+    void write(final File directory) {
+        if (!changed)
+            return;
+
+        File file = new File( directory, fileName );
+        try {
+            MPAtomicFile.write( file, stream -> objectMapper.writer().without( JsonGenerator.Feature.AUTO_CLOSE_TARGET )
+                                                            .writeValue( stream, this ) );
+            changed = false;
+        }
+        catch (final IOException e) {
+            logger.wrn( e, "Couldn't write user index: %s", file );
+        }
+    }
+
+    static class Entry extends MPJSONAnyObject {
+
+        long                size;
+        long                modified;
+        long                journal_size;
+        long                journal_modified;
+        String              full_name;
+        @Nullable
+        String              key_id;
+        MPAlgorithm.Version algorithm;
+        int                 avatar;
+        @Nullable
+        MPResultType        default_type;
+        long                last_used;
+        boolean             hide_passwords;
+        boolean             redacted;
+
+        Entry() {
+        }
+
+        Entry(final long size, final long modified, final long journalSize, final long journalModified, final MPFileUser user) {
+            this.size = size;
+            this.modified = modified;
+            journal_size = journalSize;
+            journal_modified = journalModified;
+            full_name = user.getFullName();
+            key_id = user.getKeyID();
+            algorithm = user.getAlgorithm().version();
+            avatar = user.getAvatar();
+            default_type = user.getPreferences().getDefaultType();
+            last_used = user.getLastUsed().getMillis();
+            hide_passwords = user.getPreferences().isHidePasswords();
+            redacted = user.getContentMode().isRedacted();
+        }
+    }
+}
@@ -20,11 +20,15 @@ package com.lyndir.masterpassword.model.impl;
 
 import com.google.common.collect.ImmutableSortedSet;
 import com.lyndir.lhunath.opal.system.logging.Logger;
+import com.lyndir.masterpassword.*;
 import com.lyndir.masterpassword.model.MPConfig;
+import com.lyndir.masterpassword.model.MPIncorrectMasterPasswordException;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.*;
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.*;
+import javax.annotation.Nullable;
 
 
 /**
@@ -36,12 +40,31 @@ import java.util.concurrent.CopyOnWriteArraySet;
 public class MPFileUserManager {
 
     @SuppressWarnings("UnusedDeclaration")
-    private static final Logger            logger   = Logger.get( MPFileUserManager.class );
-    private static final MPFileUserManager instance = create( MPConfig.get().rcDir() );
+    private static final Logger             logger       = Logger.get( MPFileUserManager.class );
+    // Declared before the instance, which reads its users as it is created.
+    private static final ThreadPoolExecutor readExecutor = new ThreadPoolExecutor(
+            Math.min( 4, Runtime.getRuntime().availableProcessors() ), Math.min( 4, Runtime.getRuntime().availableProcessors() ),
+            10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread( runnable, "mpw-read" );
+        thread.setDaemon( true );
+        return thread;
+    } );
+    private static final MPFileUserManager  instance     = create( MPConfig.get().rcDir() );
 
-    private final Collection<Listener>    listeners  = new CopyOnWriteArraySet<>();
-    private final Map<String, MPFileUser> userByName = new HashMap<>();
-    private final File                    path;
+    static {
+        readExecutor.allowCoreThreadTimeOut( true );
+    }
+
+    // Bursts of changes to the users' files are handled together once no new changes came in for this long.
+    private static final long watchDelay = 500;
+
+    private final    Collection<Listener>           listeners  = new CopyOnWriteArraySet<>();
+    private final    Map<String, MPFileUser>        userByName = new ConcurrentHashMap<>();
+    private final    File                           path;
+    // The users in order, as of the last change to them.  Changes are made while holding the manager's lock.
+    private volatile ImmutableSortedSet<MPFileUser> files      = ImmutableSortedSet.of();
+    @Nullable
+    private          WatchService                   watcher;
 
     public static MPFileUserManager get() {
         return instance;
@@ -56,28 +79,240 @@ public class MPFileUserManager {
         reload();
     }
 
+    /**
+     * Read the users in the manager's directory anew.  Their files are found in a single pass and read in parallel, listeners are
+     * told of each user as it is read and of all of them once they are.  Files that didn't change since the last reload are not
+     * read again, their users are taken from the directory's {@link MPFileUserIndex}.
+     *
+     * <p>The users are read outside of the manager's lock, so that listeners can use the manager while they are told of them.</p>
+     */
     public void reload() {
-        userByName.clear();
+        List<MPFileUser> users = readUsers();
+        synchronized (this) {
+            userByName.clear();
+            for (final MPFileUser user : users)
+                put( user );
+            updateFiles();
+        }
+
+        fireUpdated();
+    }
 
-        File[] pathFiles;
-        if ((!path.exists() && !path.mkdirs()) || ((pathFiles = path.listFiles()) == null)) {
+    /**
+     * @return The users in the manager's directory, ordered by the format of their file from oldest to newest.
+     */
+    private List<MPFileUser> readUsers() {
+        List<MPFileUser> users = new ArrayList<>();
+        if (!path.exists() && !path.mkdirs()) {
             logger.err( "Couldn't create directory for user files: %s", path );
-            return;
+            return users;
         }
 
-        for (final MPMarshalFormat format : MPMarshalFormat.values())
-            for (final File file : pathFiles)
-                if (format.matches( file ))
+        // Only the files that changed since they were indexed need to be read.
+        MPFileUserIndex                                index     = MPFileUserIndex.read( path );
+        Collection<File>                               userFiles = new ArrayList<>();
+        Map<MPMarshalFormat, List<Future<MPFileUser>>> reads     = new EnumMap<>( MPMarshalFormat.class );
+        try (DirectoryStream<Path> files = Files.newDirectoryStream( path.toPath() )) {
+            for (final Path file : files) {
+                MPMarshalFormat format = MPMarshalFormat.forFile( file.toFile() );
+                if (format != null) {
+                    userFiles.add( file.toFile() );
+                    reads.computeIfAbsent( format, key -> new ArrayList<>() ).add(
+                            readExecutor.submit( () -> read( index, file.toFile() ) ) );
+                }
+            }
+        }
+        catch (final IOException | DirectoryIteratorException e) {
+            logger.err( e, "Couldn't list directory for user files: %s", path );
+        }
+
+        // Users are added by format, from oldest to newest, so that a user's newest file replaces any older ones.
+        try {
+            for (final List<Future<MPFileUser>> formatReads : reads.values())
+                for (final Future<MPFileUser> read : formatReads)
                     try {
-                        MPFileUser user = MPFileUser.load( file );
+                        MPFileUser user = read.get();
                         if (user != null)
-                            add( user );
+                            users.add( user );
                     }
-                    catch (final IOException | MPMarshalException e) {
-                        logger.err( e, "Couldn't read user from: %s", file );
+                    catch (final ExecutionException e) {
+                        logger.err( e, "Couldn't read user file." );
                     }
+        }
+        catch (final InterruptedException e) {
+            logger.wrn( e, "Interrupted while reading user files." );
+            Thread.currentThread().interrupt();
+        }
+        index.retain( userFiles );
+        index.write( path );
 
-        fireUpdated();
+        return users;
+    }
+
+    @Nullable
+    private MPFileUser read(final MPFileUserIndex index, final File file) {
+        try {
+            MPFileUser user = index.load( file );
+            if (user != null)
+                for (final Listener listener : listeners)
+                    listener.onFileRead( user );
+
+            return user;
+        }
+        catch (final IOException | MPMarshalException e) {
+            logger.err( e, "Couldn't read user from: %s", file );
+            return null;
+        }
+    }
+
+    /**
+     * Follow the changes that other processes make to the users' files, bringing only the affected users up to date.  Users whose
+     * master password didn't change stay signed in.  Listeners are told of the changes from the watching thread.
+     */
+    public synchronized void watch()
+            throws IOException {
+        if (watcher != null)
+            return;
+
+        WatchService newWatcher = path.toPath().getFileSystem().newWatchService();
+        path.toPath().register( newWatcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                                StandardWatchEventKinds.ENTRY_DELETE );
+        watcher = newWatcher;
+
+        Thread thread = new Thread( () -> watch( newWatcher ), "mpw-watch" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    /**
+     * Stop following the changes to the users' files.
+     */
+    public synchronized void unwatch() {
+        if (watcher == null)
+            return;
+
+        try {
+            watcher.close();
+        }
+        catch (final IOException e) {
+            logger.wrn( e, "Couldn't stop watching: %s", path );
+        }
+        watcher = null;
+    }
+
+    private void watch(final WatchService watcher) {
+        Set<File> changedFiles = new LinkedHashSet<>();
+        try {
+            while (true) {
+                WatchKey key = changedFiles.isEmpty()? watcher.take(): watcher.poll( watchDelay, TimeUnit.MILLISECONDS );
+                if (key == null) {
+                    boolean updated = false;
+                    for (final File file : changedFiles)
+                        updated |= update( file );
+                    changedFiles.clear();
+
+                    if (updated) {
+                        synchronized (this) {
+                            updateFiles();
+                        }
+                        fireUpdated();
+                    }
+                    continue;
+                }
+
+                for (final WatchEvent<?> event : key.pollEvents())
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // Events were lost, look at every user file.
+                        for (final MPFileUser user : userByName.values())
+                            changedFiles.add( user.getFile() );
+                        File[] pathFiles = path.listFiles();
+                        if (pathFiles != null)
+                            changedFiles.addAll( Arrays.asList( pathFiles ) );
+                    } else {
+                        File file = path.toPath().resolve( (Path) event.context() ).toFile();
+                        File userFile = MPJournal.userFileOf( file );
+                        changedFiles.add( (userFile == null)? file: userFile );
+                    }
+                key.reset();
+            }
+        }
+        catch (final ClosedWatchServiceException ignored) {
+        }
+        catch (final InterruptedException e) {
+            logger.wrn( e, "Interrupted while watching: %s", path );
+        }
+    }
+
+    /**
+     * Bring the user of the file up to date with it.
+     *
+     * <p>The file is read outside of the manager's lock, which is only held to replace the user.</p>
+     *
+     * @return {@code true} if a user was added, removed or changed.
+     */
+    private boolean update(final File file) {
+        if (MPMarshalFormat.forFile( file ) == null)
+            return false;
+
+        MPFileUser user = null;
+        for (final MPFileUser fileUser : userByName.values())
+            if (fileUser.getFile().equals( file ))
+                user = fileUser;
+
+        // Our own writes, or a change that was undone.
+        if ((user != null) && !user.isFileChanged())
+            return false;
+
+        if (!file.exists()) {
+            if (user == null)
+                return false;
+            synchronized (this) {
+                if (!userByName.remove( user.getFullName(), user ))
+                    return false;
+            }
+
+            MPSaveScheduler.get().cancel( user );
+            user.invalidate();
+            return true;
+        }
+
+        MPFileUser fileUser;
+        try {
+            fileUser = MPFileUser.load( file );
+            if (fileUser == null)
+                return false;
+        }
+        catch (final IOException | MPMarshalException e) {
+            logger.err( e, "Couldn't read user from: %s", file );
+            return false;
+        }
+
+        String keyID = fileUser.getKeyID();
+        if ((user != null) && user.isMasterKeyAvailable() && user.getFullName().equals( fileUser.getFullName() ) &&
+            (keyID != null) && keyID.equalsIgnoreCase( user.getKeyID() ))
+            try {
+                return user.refresh( fileUser );
+            }
+            catch (final MPIncorrectMasterPasswordException | MPKeyUnavailableException | MPAlgorithmException e) {
+                logger.wrn( e, "Couldn't bring user up to date, signing them out: %s", user );
+            }
+
+        // A new user, or one whose file changed while they were signed out or for a new master password.
+        MPFileUser oldUser;
+        synchronized (this) {
+            // The user was replaced or deleted while their file was read.
+            if ((user != null) && !userByName.remove( user.getFullName(), user ))
+                return false;
+
+            oldUser = userByName.put( fileUser.getFullName(), fileUser );
+        }
+        for (final MPFileUser replacedUser : Arrays.asList( user, oldUser ))
+            if (replacedUser != null) {
+                MPSaveScheduler.get().cancel( replacedUser );
+                replacedUser.invalidate();
+            }
+
+        return true;
     }
 
     public MPFileUser add(final String fullName) {
@@ -85,33 +320,52 @@ public class MPFileUserManager {
     }
 
     public MPFileUser add(final MPFileUser user) {
+        synchronized (this) {
+            put( user );
+            updateFiles();
+        }
+
+        fireUpdated();
+
+        return user;
+    }
+
+    private void put(final MPFileUser user) {
         // We migrate in two steps to allow the first to complete even if the user is not in the right state to complete the latter.
         user.migrateTo( getPath() );
-        user.migrateTo( MPMarshalFormat.DEFAULT );
+        user.upgradeTo( MPMarshalFormat.DEFAULT );
 
         MPFileUser oldUser = userByName.put( user.getFullName(), user );
         if (oldUser != null) {
             oldUser.invalidate();
 
             // Delete old user, it is replaced by the new one.
-            if (!oldUser.getFile().equals( user.getFile() ) && oldUser.getFile().exists())
+            if (!oldUser.getFile().equals( user.getFile() ) && oldUser.getFile().exists()) {
+                MPJournal.delete( oldUser );
                 if (!oldUser.getFile().delete())
                     logger.err( "Couldn't delete file: %s, after replacing with: %s", oldUser.getFile(), user.getFile() );
+            }
         }
-        fireUpdated();
-
-        return user;
     }
 
     public void delete(final MPFileUser user) {
-        user.invalidate();
+        synchronized (this) {
+            user.invalidate();
+
+            // Remove deleted users.
+            File userFile = user.getFile();
+            MPJournal.delete( user );
+            if (userFile.exists() && !userFile.delete()) {
+                logger.err( "Couldn't delete file: %s", userFile );
+                return;
+            }
+            if (!userByName.values().remove( user ))
+                return;
 
-        // Remove deleted users.
-        File userFile = user.getFile();
-        if (userFile.exists() && !userFile.delete())
-            logger.err( "Couldn't delete file: %s", userFile );
-        else if (userByName.values().remove( user ))
-            fireUpdated();
+            updateFiles();
+        }
+
+        fireUpdated();
     }
 
     public File getPath() {
@@ -119,7 +373,7 @@ public class MPFileUserManager {
     }
 
     public ImmutableSortedSet<MPFileUser> getFiles() {
-        return ImmutableSortedSet.copyOf( userByName.values() );
+        return files;
     }
 
     public void addListener(final Listener listener) {
@@ -131,10 +385,14 @@ public class MPFileUserManager {
         listeners.remove( listener );
     }
 
-    private void fireUpdated() {
-        if (listeners.isEmpty())
-            return;
+    private void updateFiles() {
+        files = ImmutableSortedSet.copyOf( userByName.values() );
+    }
 
+    /**
+     * Tell the listeners of the users, outside of the manager's lock.
+     */
+    private void fireUpdated() {
         ImmutableSortedSet<MPFileUser> files = getFiles();
         for (final Listener listener : listeners)
             listener.onFilesUpdated( files );
@@ -143,5 +401,12 @@ public class MPFileUserManager {
     public interface Listener {
 
         void onFilesUpdated(ImmutableSortedSet<MPFileUser> files);
+
+        /**
+         * Called from a reading thread for each user read by {@link #reload()}, before they are all published to
+         * {@link #onFilesUpdated(ImmutableSortedSet)}.  The manager's lock is not held, so the listener may use the manager.
+         */
+        default void onFileRead(final MPFileUser file) {
+        }
     }
 }
@@ -22,11 +22,12 @@ import static com.lyndir.lhunath.opal.system.util.ObjectUtils.*;
 import static com.lyndir.lhunath.opal.system.util.StringUtils.*;
 
 import com.google.common.base.Charsets;
-import com.google.common.io.CharSink;
 import com.lyndir.masterpassword.MPAlgorithmException;
 import com.lyndir.masterpassword.MPKeyUnavailableException;
 import com.lyndir.masterpassword.model.MPModelConstants;
-import java.io.*;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import org.joda.time.Instant;
 
 
@@ -63,13 +64,27 @@ public class MPFlatMarshaller implements MPMarshaller {
         content.append( "#               Last     Times  Password                      Login\t                     Site\tSite\n" );
         content.append( "#               used      used      type                       name\t                     name\tpassword\n" );
 
-        for (final MPFileSite site : user.getSites()) {
-            String loginName = site.getLoginState();
-            String password  = site.getResultState();
-            if (!user.getContentMode().isRedacted()) {
-                loginName = site.getLogin();
-                password = site.getResult();
+        List<MPFileSite> sites      = new ArrayList<>( user.getSites() );
+        String[]         loginNames = new String[sites.size()], passwords = new String[sites.size()];
+        if (user.getContentMode().isRedacted())
+            for (int s = 0; s < sites.size(); ++s) {
+                loginNames[s] = sites.get( s ).getLoginState();
+                passwords[s] = sites.get( s ).getResultState();
             }
+        else {
+            MPResultBatch results = new MPResultBatch( user.getMasterKey() );
+            for (int s = 0; s < sites.size(); ++s) {
+                int siteIndex = s;
+                results.requestLogin( sites.get( s ), loginName -> loginNames[siteIndex] = loginName );
+                results.requestResult( sites.get( s ), password -> passwords[siteIndex] = password );
+            }
+            results.derive();
+        }
+
+        for (int s = 0; s < sites.size(); ++s) {
+            MPFileSite site      = sites.get( s );
+            String     loginName = loginNames[s];
+            String     password  = passwords[s];
 
             content.append( strf( "%s  %8d  %8s  %25s\t%25s\t%s\n", //
                                   MPModelConstants.dateTimeFormatter.print( site.getLastUsed() ), // lastUsed
@@ -84,12 +99,6 @@ public class MPFlatMarshaller implements MPMarshaller {
             ) );
         }
 
-        new CharSink() {
-            @Override
-            public Writer openStream()
-                    throws IOException {
-                return new OutputStreamWriter( new FileOutputStream( user.getFile() ), Charsets.UTF_8 );
-            }
-        }.write( content.toString() );
+        MPAtomicFile.write( user.getFile(), stream -> stream.write( content.toString().getBytes( Charsets.UTF_8 ) ) );
     }
 }
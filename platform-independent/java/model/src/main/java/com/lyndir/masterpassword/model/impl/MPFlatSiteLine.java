@@ -0,0 +1,206 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+package com.lyndir.masterpassword.model.impl;
+
+import com.google.common.primitives.UnsignedInteger;
+import com.lyndir.masterpassword.MPAlgorithm;
+import com.lyndir.masterpassword.model.MPModelConstants;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import javax.annotation.Nullable;
+import org.joda.time.Instant;
+
+
+/**
+ * Tokenizes the site lines of the flat format in a single pass, reusing one instance for all the lines of a file.
+ *
+ * <p>Format 0: {@code <last used> <uses> <type>[:<algorithm>] <site name>\t<site password>}</p>
+ * <p>Format 1: {@code <last used> <uses> <type>[:<algorithm>[:<counter>]] <login name>\t<site name>\t<site password>}</p>
+ *
+ * @author lhunath, 2026-10-18
+ */
+final class MPFlatSiteLine {
+
+    private static final long MILLIS_PER_DAY = 24 * 3600 * 1000L;
+
+    // Sites are often used on the same day, so the last day we parsed is kept.
+    @Nullable
+    private String day;
+    private long   dayMillis;
+
+    Instant lastUsed;
+    int     uses;
+    int     type;
+    @Nullable
+    MPAlgorithm.Version algorithm;
+    @Nullable
+    UnsignedInteger     counter;
+    @Nullable
+    String              loginName;
+    String              siteName;
+    String              sitePassword;
+
+    /**
+     * @return {@code false} if the line isn't a site line of the given format.
+     */
+    boolean parse(final String line, final int format)
+            throws MPMarshalException {
+        if ((format != 0) && (format != 1))
+            throw new MPMarshalException( "Unexpected format: " + format );
+
+        // <last used>
+        int dateEnd = 0;
+        while ((dateEnd < line.length()) && (line.charAt( dateEnd ) != ' '))
+            ++dateEnd;
+        if (dateEnd == 0)
+            return false;
+
+        // <uses>
+        int usesStart = skipSpaces( line, dateEnd ), usesEnd = skipDigits( line, usesStart );
+        if ((usesStart == dateEnd) || (usesEnd == usesStart))
+            return false;
+
+        // <type>[:<algorithm>[:<counter>]]
+        int typeStart = skipSpaces( line, usesEnd ), typeEnd = skipDigits( line, typeStart );
+        if ((typeStart == usesEnd) || (typeEnd == typeStart))
+            return false;
+        int algorithmEnd = typeEnd, counterEnd = typeEnd;
+        if ((typeEnd < line.length()) && (line.charAt( typeEnd ) == ':')) {
+            algorithmEnd = counterEnd = skipDigits( line, typeEnd + 1 );
+            if (algorithmEnd == (typeEnd + 1))
+                return false;
+
+            if ((format == 1) && (algorithmEnd < line.length()) && (line.charAt( algorithmEnd ) == ':')) {
+                counterEnd = skipDigits( line, algorithmEnd + 1 );
+                if (counterEnd == (algorithmEnd + 1))
+                    return false;
+            }
+        }
+
+        // [<login name>\t]
+        int nameStart = skipSpaces( line, counterEnd );
+        if (nameStart == counterEnd)
+            return false;
+        loginName = null;
+        if (format == 1) {
+            int loginEnd = line.indexOf( '\t', nameStart );
+            if (loginEnd < 0)
+                return false;
+
+            loginName = line.substring( nameStart, loginEnd );
+            nameStart = skipSpaces( line, loginEnd + 1 );
+            if ((nameStart > (loginEnd + 1)) && (nameStart < line.length()) && (line.charAt( nameStart ) == '\t'))
+                // A name of only spaces keeps its last space.
+                --nameStart;
+        }
+        else if ((nameStart > (counterEnd + 1)) && (nameStart < line.length()) && (line.charAt( nameStart ) == '\t'))
+            --nameStart;
+
+        // <site name>\t<site password>
+        int nameEnd = line.indexOf( '\t', nameStart );
+        if (nameEnd <= nameStart)
+            return false;
+
+        siteName = line.substring( nameStart, nameEnd );
+        sitePassword = line.substring( nameEnd + 1 );
+        uses = toInt( line, usesStart, usesEnd );
+        type = toInt( line, typeStart, typeEnd );
+        algorithm = (algorithmEnd == typeEnd)? null: MPAlgorithm.Version.fromInt( toInt( line, typeEnd + 1, algorithmEnd ) );
+        counter = (counterEnd == algorithmEnd)? null: UnsignedInteger.valueOf( toLong( line, algorithmEnd + 1, counterEnd ) );
+        lastUsed = toInstant( line, dateEnd );
+
+        return true;
+    }
+
+    /**
+     * Parse {@code yyyy-MM-ddTHH:mm:ssZ} by hand, leaving any other form to {@link MPModelConstants#dateTimeFormatter}.
+     */
+    private Instant toInstant(final String line, final int end) {
+        if ((end == 20) && (line.charAt( 4 ) == '-') && (line.charAt( 7 ) == '-') && (line.charAt( 10 ) == 'T') &&
+            (line.charAt( 13 ) == ':') && (line.charAt( 16 ) == ':') && (line.charAt( 19 ) == 'Z')) {
+            int hours = toTwoDigits( line, 11 ), minutes = toTwoDigits( line, 14 ), seconds = toTwoDigits( line, 17 );
+
+            if ((hours >= 0) && (hours < 24) && (minutes >= 0) && (minutes < 60) && (seconds >= 0) && (seconds < 60)) {
+                if ((day == null) || !line.regionMatches( 0, day, 0, 10 )) {
+                    int century = toTwoDigits( line, 0 ), year = toTwoDigits( line, 2 );
+                    int month = toTwoDigits( line, 5 ), dayOfMonth = toTwoDigits( line, 8 );
+
+                    day = null;
+                    if ((century >= 0) && (year >= 0))
+                        try {
+                            dayMillis = LocalDate.of( century * 100 + year, month, dayOfMonth ).toEpochDay() * MILLIS_PER_DAY;
+                            day = line.substring( 0, 10 );
+                        }
+                        catch (final DateTimeException ignored) {
+                        }
+                }
+
+                if (day != null)
+                    return new Instant( dayMillis + ((hours * 60L + minutes) * 60L + seconds) * 1000L );
+            }
+        }
+
+        return MPModelConstants.dateTimeFormatter.parseDateTime( line.substring( 0, end ) ).toInstant();
+    }
+
+    private static int skipSpaces(final String line, int index) {
+        while ((index < line.length()) && (line.charAt( index ) == ' '))
+            ++index;
+
+        return index;
+    }
+
+    private static int skipDigits(final String line, int index) {
+        while ((index < line.length()) && (line.charAt( index ) >= '0') && (line.charAt( index ) <= '9'))
+            ++index;
+
+        return index;
+    }
+
+    /**
+     * @return {@code -1} if either character isn't a digit.
+     */
+    private static int toTwoDigits(final String line, final int index) {
+        int tens = line.charAt( index ) - '0', ones = line.charAt( index + 1 ) - '0';
+        if ((tens < 0) || (tens > 9) || (ones < 0) || (ones > 9))
+            return -1;
+
+        return tens * 10 + ones;
+    }
+
+    /**
+     * @return {@code 0} if the digits don't fit in an int, as {@code ConversionUtils.toIntegerNN} did.
+     */
+    private static int toInt(final String line, final int start, final int end) {
+        long value = toLong( line, start, end );
+
+        return (value > Integer.MAX_VALUE)? 0: (int) value;
+    }
+
+    private static long toLong(final String line, final int start, final int end) {
+        long value = 0;
+        for (int index = start; index < end; ++index) {
+            value = value * 10 + (line.charAt( index ) - '0');
+            if (value > UnsignedInteger.MAX_VALUE.longValue())
+                return Long.MAX_VALUE;
+        }
+
+        return value;
+    }
+}
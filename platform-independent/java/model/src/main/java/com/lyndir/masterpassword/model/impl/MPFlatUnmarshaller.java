@@ -19,8 +19,6 @@
 package com.lyndir.masterpassword.model.impl;
 
 import com.google.common.base.Charsets;
-import com.google.common.io.CharStreams;
-import com.google.common.primitives.UnsignedInteger;
 import com.lyndir.lhunath.opal.system.CodeUtils;
 import com.lyndir.lhunath.opal.system.logging.Logger;
 import com.lyndir.lhunath.opal.system.util.ConversionUtils;
@@ -39,18 +37,15 @@ import org.joda.time.Instant;
  */
 public class MPFlatUnmarshaller implements MPUnmarshaller {
 
-    private static final Logger    logger            = Logger.get( MPFlatUnmarshaller.class );
-    private static final Pattern[] unmarshallFormats = {
-            Pattern.compile( "^([^ ]+) +(\\d+) +(\\d+)(:\\d+)? +([^\t]+)\t(.*)" ),
-            Pattern.compile( "^([^ ]+) +(\\d+) +(\\d+)(:\\d+)?(:\\d+)? +([^\t]*)\t *([^\t]+)\t(.*)" ) };
-    private static final Pattern   headerFormat      = Pattern.compile( "^#\\s*([^:]+): (.*)" );
-    private static final Pattern   colon             = Pattern.compile( ":" );
+    private static final Logger  logger       = Logger.get( MPFlatUnmarshaller.class );
+    private static final Pattern headerFormat = Pattern.compile( "^#\\s*([^:]+): (.*)" );
 
     @Nonnull
     @Override
     public MPFileUser readUser(@Nonnull final File file)
             throws IOException, MPMarshalException {
-        try (Reader reader = new InputStreamReader( new FileInputStream( file ), Charsets.UTF_8 )) {
+        // Stream the file rather than read it into memory, so that the sites after the header are never read.
+        try (BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), Charsets.UTF_8 ) )) {
             String       keyID        = null;
             String       fullName     = null;
             int          mpVersion    = 0, avatar = 0;
@@ -58,8 +53,7 @@ public class MPFlatUnmarshaller implements MPUnmarshaller {
             MPResultType defaultType  = null;
             Instant      date         = null;
 
-            //noinspection HardcodedLineSeparator
-            for (final String line : CharStreams.readLines( reader ))
+            for (String line; (line = reader.readLine()) != null; )
                 // Header delimitor.
                 if (line.startsWith( "##" )) {
                     if (!headerStarted)
@@ -108,94 +102,83 @@ public class MPFlatUnmarshaller implements MPUnmarshaller {
             throws IOException, MPMarshalException, MPIncorrectMasterPasswordException, MPKeyUnavailableException, MPAlgorithmException {
         user.ignoreChanges();
 
-        if (user.getFile().exists())
-            try (Reader reader = new InputStreamReader( new FileInputStream( user.getFile() ), Charsets.UTF_8 )) {
-                byte[]       keyID        = null;
-                String       fullName     = null;
-                int          mpVersion    = 0, importFormat = 0, avatar = 0;
-                boolean      clearContent = false, headerStarted = false, headerEnded = false;
-                MPResultType defaultType  = null;
-
-                //noinspection HardcodedLineSeparator
-                for (final String line : CharStreams.readLines( reader ))
-                    // Header delimitor.
-                    if (line.startsWith( "##" )) {
-                        if (!headerStarted)
-                            // Starts the header.
-                            headerStarted = true;
-                        else
-                            // Ends the header.
-                            headerEnded = true;
-                    }
+        if (user.getFile().exists()) {
+            MPFileContent.LineReader reader = new MPFileContent.LineReader( MPFileContent.read( user.getFile() ) );
 
-                    // Comment.
-                    else if (line.startsWith( "#" )) {
-                        if (headerStarted && !headerEnded) {
-                            // In header.
-                            Matcher headerMatcher = headerFormat.matcher( line );
-                            if (headerMatcher.matches()) {
-                                String name = headerMatcher.group( 1 ), value = headerMatcher.group( 2 );
-                                if ("Format".equalsIgnoreCase( name ))
-                                    importFormat = ConversionUtils.toIntegerNN( value );
-                                else if ("Passwords".equalsIgnoreCase( name ))
-                                    clearContent = "visible".equalsIgnoreCase( value );
-                            }
+            byte[]       keyID        = null;
+            String       fullName     = null;
+            int          mpVersion    = 0, importFormat = 0, avatar = 0;
+            boolean      clearContent = false, headerStarted = false, headerEnded = false;
+            MPResultType defaultType  = null;
+
+            MPFlatSiteLine siteLine = new MPFlatSiteLine();
+            // Read line by line so that each site is added as soon as its line is read.
+            for (String line; (line = reader.readLine()) != null; )
+                // Header delimitor.
+                if (line.startsWith( "##" )) {
+                    if (!headerStarted)
+                        // Starts the header.
+                        headerStarted = true;
+                    else
+                        // Ends the header.
+                        headerEnded = true;
+                }
+
+                // Comment.
+                else if (line.startsWith( "#" )) {
+                    if (headerStarted && !headerEnded) {
+                        // In header.
+                        Matcher headerMatcher = headerFormat.matcher( line );
+                        if (headerMatcher.matches()) {
+                            String name = headerMatcher.group( 1 ), value = headerMatcher.group( 2 );
+                            if ("Format".equalsIgnoreCase( name ))
+                                importFormat = ConversionUtils.toIntegerNN( value );
+                            else if ("Passwords".equalsIgnoreCase( name ))
+                                clearContent = "visible".equalsIgnoreCase( value );
                         }
                     }
+                }
 
-                    // No comment.
-                    else if (headerEnded) {
-                        Matcher siteMatcher = unmarshallFormats[importFormat].matcher( line );
-                        if (!siteMatcher.matches()) {
-                            logger.wrn( "Couldn't parse line: %s, skipping.", line );
-                            continue;
-                        }
+                // No comment.
+                else if (headerEnded) {
+                    if (!siteLine.parse( line, importFormat )) {
+                        logger.wrn( "Couldn't parse line: %s, skipping.", line );
+                        continue;
+                    }
 
-                        MPFileSite site;
-                        switch (importFormat) {
-                            case 0:
-                                site = new MPFileSite(
-                                        user, siteMatcher.group( 5 ),
-                                        MPAlgorithm.Version.fromInt( ConversionUtils.toIntegerNN(
-                                                colon.matcher( siteMatcher.group( 4 ) ).replaceAll( "" ) ) ),
-                                        user.getAlgorithm().mpw_default_counter(),
-                                        MPResultType.forType( ConversionUtils.toIntegerNN( siteMatcher.group( 3 ) ) ),
-                                        clearContent? null: siteMatcher.group( 6 ),
-                                        null, null, null, ConversionUtils.toIntegerNN( siteMatcher.group( 2 ) ),
-                                        MPModelConstants.dateTimeFormatter.parseDateTime( siteMatcher.group( 1 ) ).toInstant() );
-                                if (clearContent)
-                                    site.setSitePassword( site.getResultType(), siteMatcher.group( 6 ) );
-                                break;
-
-                            case 1:
-                                site = new MPFileSite(
-                                        user, siteMatcher.group( 7 ),
-                                        MPAlgorithm.Version.fromInt( ConversionUtils.toIntegerNN(
-                                                colon.matcher( siteMatcher.group( 4 ) ).replaceAll( "" ) ) ),
-                                        UnsignedInteger.valueOf(
-                                                colon.matcher( siteMatcher.group( 5 ) ).replaceAll( "" ) ),
-                                        MPResultType.forType( ConversionUtils.toIntegerNN( siteMatcher.group( 3 ) ) ),
-                                        clearContent? null: siteMatcher.group( 8 ),
-                                        MPResultType.GeneratedName,
-                                        clearContent? null: siteMatcher.group( 6 ),
-                                        null, ConversionUtils.toIntegerNN( siteMatcher.group( 2 ) ),
-                                        MPModelConstants.dateTimeFormatter.parseDateTime( siteMatcher.group( 1 ) ).toInstant() );
-                                if (clearContent) {
-                                    site.setSitePassword( site.getResultType(), siteMatcher.group( 8 ) );
-                                    site.setLoginName( MPResultType.StoredPersonal, siteMatcher.group( 6 ) );
-                                }
-                                break;
-
-                            default:
-                                throw new MPMarshalException( "Unexpected format: " + importFormat );
-                        }
+                    MPFileSite site;
+                    switch (importFormat) {
+                        case 0:
+                            site = new MPFileSite(
+                                    user, siteLine.siteName, siteLine.algorithm, user.getAlgorithm().mpw_default_counter(),
+                                    MPResultType.forType( siteLine.type ), clearContent? null: siteLine.sitePassword,
+                                    null, null, null, siteLine.uses, siteLine.lastUsed );
+                            if (clearContent)
+                                site.readSitePassword( siteLine.sitePassword );
+                            break;
+
+                        case 1:
+                            site = new MPFileSite(
+                                    user, siteLine.siteName, siteLine.algorithm, siteLine.counter,
+                                    MPResultType.forType( siteLine.type ), clearContent? null: siteLine.sitePassword,
+                                    clearContent? MPResultType.StoredPersonal: MPResultType.GeneratedName,
+                                    clearContent? null: siteLine.loginName, null, siteLine.uses, siteLine.lastUsed );
+                            if (clearContent) {
+                                site.readSitePassword( siteLine.sitePassword );
+                                site.readLoginName( siteLine.loginName );
+                            }
+                            break;
 
-                        user.addSite( site );
+                        default:
+                            throw new MPMarshalException( "Unexpected format: " + importFormat );
                     }
 
-                if (user == null)
-                    throw new MPMarshalException( "No full header found in import file." );
-            }
+                    user.addSite( site );
+                }
+
+            if (user == null)
+                throw new MPMarshalException( "No full header found in import file." );
+        }
 
         user.setComplete();
         user.endChanges();
@@ -18,20 +18,15 @@
 
 package com.lyndir.masterpassword.model.impl;
 
-import static com.lyndir.lhunath.opal.system.util.ObjectUtils.*;
-
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import com.fasterxml.jackson.core.util.Separators;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.primitives.UnsignedInteger;
 import com.lyndir.lhunath.opal.system.CodeUtils;
 import com.lyndir.masterpassword.*;
-import com.lyndir.masterpassword.model.MPIncorrectMasterPasswordException;
 import com.lyndir.masterpassword.model.MPModelConstants;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-import java.io.File;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import javax.annotation.Nullable;
@@ -44,9 +39,6 @@ import org.joda.time.Instant;
 @SuppressFBWarnings("URF_UNREAD_FIELD")
 public class MPJSONFile extends MPJSONAnyObject {
 
-    MPJSONFile() {
-    }
-
     MPJSONFile(final MPFileUser modelUser)
             throws MPAlgorithmException, MPKeyUnavailableException {
 
@@ -72,33 +64,26 @@ public class MPJSONFile extends MPJSONAnyObject {
 
         // Section "sites"
         sites = new LinkedHashMap<>();
+        MPResultBatch results = export.redacted? null: new MPResultBatch( modelUser.getMasterKey() );
         for (final MPFileSite modelSite : modelUser.getSites()) {
-            String content = null, loginContent = null;
+            Site site = sites.computeIfAbsent( modelSite.getSiteName(), siteName -> new Site() );
+            site.type = modelSite.getResultType();
+            site.counter = modelSite.getCounter().longValue();
+            site.algorithm = modelSite.getAlgorithm().version();
+            site.login_type = modelSite.getLoginType();
 
-            if (!export.redacted) {
+            if (results != null) {
                 // Clear Text
-                content = modelSite.getResult();
-                loginContent = modelUser.getMasterKey().siteResult(
-                        modelSite.getSiteName(), modelSite.getAlgorithm(), modelSite.getAlgorithm().mpw_default_counter(),
-                        MPKeyPurpose.Identification, null, modelSite.getLoginType(), modelSite.getLoginState() );
+                results.requestResult( modelSite, content -> site.password = content );
+                results.requestLogin( modelSite, loginContent -> site.login_name = loginContent );
             } else {
                 // Redacted
                 if (modelSite.getResultType().supportsTypeFeature( MPSiteFeature.ExportContent ))
-                    content = modelSite.getResultState();
+                    site.password = modelSite.getResultState();
                 if (modelSite.getLoginType().supportsTypeFeature( MPSiteFeature.ExportContent ))
-                    loginContent = modelSite.getLoginState();
+                    site.login_name = modelSite.getLoginState();
             }
 
-            Site site = sites.get( modelSite.getSiteName() );
-            if (site == null)
-                sites.put( modelSite.getSiteName(), site = new Site() );
-            site.type = modelSite.getResultType();
-            site.counter = modelSite.getCounter().longValue();
-            site.algorithm = modelSite.getAlgorithm().version();
-            site.password = content;
-            site.login_name = loginContent;
-            site.login_type = modelSite.getLoginType();
-
             site.uses = modelSite.getUses();
             site.last_used = MPModelConstants.dateTimeFormatter.print( modelSite.getLastUsed() );
 
@@ -108,9 +93,9 @@ public class MPJSONFile extends MPJSONAnyObject {
                     {
                         type = question.getType();
 
-                        if (!export.redacted) {
+                        if (results != null) {
                             // Clear Text
-                            answer = question.getAnswer();
+                            results.requestAnswer( modelSite, question, content -> answer = content );
                         } else {
                             // Redacted
                             if (question.getType().supportsTypeFeature( MPSiteFeature.ExportContent ))
@@ -125,56 +110,8 @@ public class MPJSONFile extends MPJSONAnyObject {
                 }
             };
         }
-    }
-
-    MPFileUser readUser(final File file) {
-        MPAlgorithm algorithm = ifNotNullElse( user.algorithm, MPAlgorithm.Version.CURRENT );
-
-        return new MPFileUser(
-                user.full_name, user.key_id, algorithm, user.avatar,
-                (user._ext_mpw != null)? user._ext_mpw.default_type: null,
-                (user.last_used != null)? MPModelConstants.dateTimeFormatter.parseDateTime( user.last_used ): new Instant(),
-                (user._ext_mpw != null) && user._ext_mpw.hide_passwords,
-                export.redacted? MPMarshaller.ContentMode.PROTECTED: MPMarshaller.ContentMode.VISIBLE,
-                MPMarshalFormat.JSON, file
-        );
-    }
-
-    void readSites(final MPFileUser user)
-            throws MPIncorrectMasterPasswordException, MPKeyUnavailableException, MPAlgorithmException {
-        for (final Map.Entry<String, Site> siteEntry : sites.entrySet()) {
-            String siteName = siteEntry.getKey();
-            Site   fileSite = siteEntry.getValue();
-            MPFileSite site = new MPFileSite(
-                    user, siteName, fileSite.algorithm, UnsignedInteger.valueOf( fileSite.counter ),
-                    fileSite.type, export.redacted? fileSite.password: null,
-                    fileSite.login_type, export.redacted? fileSite.login_name: null,
-                    (fileSite._ext_mpw != null)? fileSite._ext_mpw.url: null, fileSite.uses,
-                    (fileSite.last_used != null)? MPModelConstants.dateTimeFormatter.parseDateTime( fileSite.last_used ): new Instant() );
-
-            if (!export.redacted) {
-                if (fileSite.password != null)
-                    site.setSitePassword( (fileSite.type != null)? fileSite.type: MPResultType.StoredPersonal, fileSite.password );
-                if (fileSite.login_name != null)
-                    site.setLoginName( (fileSite.login_type != null)? fileSite.login_type: MPResultType.StoredPersonal,
-                                       fileSite.login_name );
-            }
-
-            if (fileSite.questions != null)
-                for (final Map.Entry<String, Site.Question> questionEntry : fileSite.questions.entrySet()) {
-                    Site.Question fileQuestion = questionEntry.getValue();
-                    MPFileQuestion question = new MPFileQuestion( site, ifNotNullElse( questionEntry.getKey(), "" ),
-                                                                  fileQuestion.type, export.redacted? fileQuestion.answer: null );
-
-                    if (!export.redacted && (fileQuestion.answer != null))
-                        question.setAnswer( (fileQuestion.type != null)? fileQuestion.type: MPResultType.StoredPersonal,
-                                            fileQuestion.answer );
-
-                    site.addQuestion( question );
-                }
-
-            user.addSite( site );
-        }
+        if (results != null)
+            results.derive();
     }
 
     // -- Data
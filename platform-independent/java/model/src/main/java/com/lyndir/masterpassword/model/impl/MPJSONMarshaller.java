@@ -20,6 +20,7 @@ package com.lyndir.masterpassword.model.impl;
 
 import static com.lyndir.masterpassword.model.impl.MPJSONFile.*;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.lyndir.masterpassword.MPAlgorithmException;
 import com.lyndir.masterpassword.MPKeyUnavailableException;
@@ -41,7 +42,10 @@ public class MPJSONMarshaller implements MPMarshaller {
             throw new IllegalStateException( "Cannot marshall an incomplete user: " + user );
 
         try {
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue( user.getFile(), new MPJSONFile( user ) );
+            MPJSONFile file = new MPJSONFile( user );
+            MPAtomicFile.write( user.getFile(), stream -> objectMapper.writerWithDefaultPrettyPrinter()
+                                                                      .without( JsonGenerator.Feature.AUTO_CLOSE_TARGET )
+                                                                      .writeValue( stream, file ) );
         }
         catch (final JsonProcessingException e) {
             throw new MPMarshalException( "Couldn't compose JSON for: " + user, e );
@@ -18,19 +18,35 @@
 
 package com.lyndir.masterpassword.model.impl;
 
+import static com.lyndir.lhunath.opal.system.util.ObjectUtils.*;
 import static com.lyndir.masterpassword.model.impl.MPJSONFile.*;
 
-import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.lyndir.masterpassword.MPAlgorithmException;
-import com.lyndir.masterpassword.MPKeyUnavailableException;
+import com.fasterxml.jackson.core.*;
+import com.google.common.primitives.UnsignedInteger;
+import com.lyndir.masterpassword.*;
 import com.lyndir.masterpassword.model.MPIncorrectMasterPasswordException;
+import com.lyndir.masterpassword.model.MPModelConstants;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.joda.time.Instant;
+import org.joda.time.ReadableInstant;
 
 
 /**
+ * Reads the JSON format as a stream of tokens, without binding the file into an object tree first.
+ *
+ * <p>{@link #readUser(File)} stops reading once it has the user's header, and {@link #readSites(MPFileUser)} creates each site as
+ * it is read.  Unknown fields are skipped.</p>
+ *
+ * <p>{@link #readUser(File)} parses from the file as it reads it, {@link #readSites(MPFileUser)} reads the whole file into memory
+ * and parses from there, see {@link MPFileContent}.</p>
+ *
+ * <p>Clear content of a visible file is only encrypted into its state, and questions are only created, once the site needs them.</p>
+ *
  * @author lhunath, 2017-09-20
  */
 public class MPJSONUnmarshaller implements MPUnmarshaller {
@@ -40,33 +56,329 @@ public class MPJSONUnmarshaller implements MPUnmarshaller {
     public MPFileUser readUser(@Nonnull final File file)
             throws IOException, MPMarshalException {
 
-        try {
-            return objectMapper.readValue( file, MPJSONFile.class ).readUser( file );
+        // The parser reads from the file in chunks as it goes, the rest of the file is never read.
+        try (JsonParser parser = objectMapper.getFactory().createParser( file )) {
+            Header header = new Header();
+            if (!nextObject( parser ))
+                throw new MPMarshalException( "Couldn't map JSON, missing content in: " + file );
+
+            // The header sections are written before the sites, so we're usually done long before the end of the file.
+            while (!(header.hasExport && header.hasUser) && nextField( parser )) {
+                if ("export".equals( parser.getCurrentName() ))
+                    header.readExport( parser );
+                else if ("user".equals( parser.getCurrentName() ))
+                    header.readUser( parser );
+
+                parser.skipChildren();
+            }
+
+            return header.toUser( file );
         }
         catch (final JsonParseException e) {
             throw new MPMarshalException( "Couldn't parse JSON.", e );
         }
-        catch (final JsonMappingException e) {
-            throw new MPMarshalException( "Couldn't map JSON.", e );
-        }
     }
 
     @Override
     public void readSites(final MPFileUser user)
             throws IOException, MPMarshalException, MPIncorrectMasterPasswordException, MPKeyUnavailableException, MPAlgorithmException {
 
+        user.ignoreChanges();
+        if (user.getFile().exists())
+            try (JsonParser parser = parser( user.getFile() )) {
+                Header header = new Header();
+                if (!nextObject( parser ))
+                    throw new MPMarshalException( "Couldn't map JSON, missing content in: " + user.getFile() );
+
+                while (nextField( parser )) {
+                    if ("export".equals( parser.getCurrentName() ))
+                        header.readExport( parser );
+                    else if ("sites".equals( parser.getCurrentName() ) && nextObject( parser ))
+                        while (nextField( parser ))
+                            readSite( parser, user, header.hasExport? header.redacted: user.getContentMode().isRedacted() );
+
+                    parser.skipChildren();
+                }
+            }
+            catch (final JsonParseException e) {
+                throw new MPMarshalException( "Couldn't parse JSON.", e );
+            }
+
+        user.setComplete();
+        user.endChanges();
+    }
+
+    private static void readSite(final JsonParser parser, final MPFileUser user, final boolean redacted)
+            throws IOException, MPMarshalException, MPIncorrectMasterPasswordException, MPKeyUnavailableException, MPAlgorithmException {
+
+        String                siteName  = parser.getCurrentName();
+        MPResultType          type      = null, loginType = null;
+        long                  counter   = 0;
+        MPAlgorithm.Version   algorithm = MPAlgorithm.Version.CURRENT;
+        String                password  = null, loginName = null, url = null;
+        int                   uses      = 0;
+        ReadableInstant       lastUsed  = null;
+        Map<String, Question> questions = Collections.emptyMap();
+
+        if (nextObject( parser ))
+            while (nextField( parser )) {
+                switch (parser.getCurrentName()) {
+                    case "type":
+                        type = resultType( parser );
+                        break;
+                    case "counter":
+                        counter = parser.getValueAsLong();
+                        break;
+                    case "algorithm":
+                        algorithm = algorithm( parser );
+                        break;
+                    case "password":
+                        password = parser.getValueAsString();
+                        break;
+                    case "login_name":
+                        loginName = parser.getValueAsString();
+                        break;
+                    case "login_type":
+                        loginType = resultType( parser );
+                        break;
+                    case "uses":
+                        uses = parser.getValueAsInt();
+                        break;
+                    case "last_used":
+                        lastUsed = instant( parser );
+                        break;
+                    case "questions":
+                        if (nextObject( parser ))
+                            while (nextField( parser )) {
+                                if (questions.isEmpty())
+                                    questions = new LinkedHashMap<>();
+                                questions.put( ifNotNullElse( parser.getCurrentName(), "" ), new Question( parser ) );
+                            }
+                        break;
+                    case "_ext_mpw":
+                        if (nextObject( parser ))
+                            while (nextField( parser )) {
+                                if ("url".equals( parser.getCurrentName() ))
+                                    url = parser.getValueAsString();
+                                parser.skipChildren();
+                            }
+                        break;
+                }
+
+                parser.skipChildren();
+            }
+
+        // Clear content is stored with a personal type unless the file names its type.
+        if (!redacted && (password != null) && (type == null))
+            type = MPResultType.StoredPersonal;
+        if (!redacted && (loginName != null) && (loginType == null))
+            loginType = MPResultType.StoredPersonal;
+
+        MPFileSite site = new MPFileSite(
+                user, siteName, algorithm, UnsignedInteger.valueOf( counter ), type, redacted? password: null,
+                loginType, redacted? loginName: null, url, uses, ifNotNullElse( lastUsed, new Instant() ) );
+
+        if (!redacted) {
+            if (password != null)
+                site.readSitePassword( password );
+            if (loginName != null)
+                site.readLoginName( loginName );
+        }
+
+        for (final Map.Entry<String, Question> questionEntry : questions.entrySet()) {
+            String   keyword      = questionEntry.getKey();
+            Question fileQuestion = questionEntry.getValue();
+            if (!redacted && (fileQuestion.answer != null) && (fileQuestion.type == null))
+                fileQuestion.type = MPResultType.StoredPersonal;
+
+            MPResultType   questionType = fileQuestion.type;
+            String         answerState  = redacted? fileQuestion.answer: null;
+            MPPendingState answer       = (!redacted && (fileQuestion.answer != null))?
+                    site.readAnswer( keyword, questionType, fileQuestion.answer ): null;
+            site.readQuestion( () -> {
+                MPFileQuestion question = new MPFileQuestion( site, keyword, questionType, answerState );
+                if (answer != null)
+                    question.readAnswer( answer );
+
+                return question;
+            } );
+        }
+
+        user.addSite( site );
+    }
+
+    private static JsonParser parser(final File file)
+            throws IOException {
+
+        ByteBuffer content = MPFileContent.read( file );
+        return objectMapper.getFactory().createParser(
+                content.array(), content.arrayOffset() + content.position(), content.remaining() );
+    }
+
+    /**
+     * Advance to the next field of the current object and onto its value.
+     *
+     * @return {@code false} if the object has no more fields.
+     */
+    private static boolean nextField(final JsonParser parser)
+            throws IOException, MPMarshalException {
+
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.END_OBJECT)
+            return false;
+        if (token != JsonToken.FIELD_NAME)
+            throw new MPMarshalException( "Couldn't map JSON, expected a field at: " + parser.getCurrentLocation() );
+
+        parser.nextToken();
+        return true;
+    }
+
+    /**
+     * Expect the current value to be an object, advancing onto it if the document hasn't started yet.
+     *
+     * @return {@code false} if the value is null or there is no content.
+     */
+    private static boolean nextObject(final JsonParser parser)
+            throws IOException, MPMarshalException {
+
+        JsonToken token = parser.hasCurrentToken()? parser.currentToken(): parser.nextToken();
+        if ((token == null) || (token == JsonToken.VALUE_NULL))
+            return false;
+        if (token != JsonToken.START_OBJECT)
+            throw new MPMarshalException( "Couldn't map JSON, expected an object at: " + parser.getCurrentLocation() );
+
+        return true;
+    }
+
+    @Nullable
+    private static MPResultType resultType(final JsonParser parser)
+            throws IOException, MPMarshalException {
+
         try {
-            user.ignoreChanges();
-            if (user.getFile().exists())
-                objectMapper.readValue( user.getFile(), MPJSONFile.class ).readSites( user );
-            user.setComplete();
-            user.endChanges();
+            return (parser.currentToken() == JsonToken.VALUE_NULL)? null: MPResultType.forType( parser.getValueAsInt() );
         }
-        catch (final JsonParseException e) {
-            throw new MPMarshalException( "Couldn't parse JSON.", e );
+        catch (final RuntimeException e) {
+            throw new MPMarshalException( "Couldn't map JSON, unknown type at: " + parser.getCurrentLocation(), e );
+        }
+    }
+
+    @Nullable
+    private static MPAlgorithm.Version algorithm(final JsonParser parser)
+            throws IOException, MPMarshalException {
+
+        try {
+            return (parser.currentToken() == JsonToken.VALUE_NULL)? null: MPAlgorithm.Version.fromInt( parser.getValueAsInt() );
         }
-        catch (final JsonMappingException e) {
-            throw new MPMarshalException( "Couldn't map JSON.", e );
+        catch (final RuntimeException e) {
+            throw new MPMarshalException( "Couldn't map JSON, unknown algorithm at: " + parser.getCurrentLocation(), e );
+        }
+    }
+
+    @Nullable
+    private static ReadableInstant instant(final JsonParser parser)
+            throws IOException {
+
+        String text = parser.getValueAsString();
+        return (text == null)? null: MPModelConstants.dateTimeFormatter.parseDateTime( text );
+    }
+
+    /**
+     * The "export" and "user" sections.
+     */
+    private static final class Header {
+
+        boolean hasExport, hasUser;
+        boolean redacted;
+
+        int                 avatar;
+        String              fullName;
+        ReadableInstant     lastUsed;
+        String              keyID;
+        MPAlgorithm.Version algorithm;
+        MPResultType        defaultType;
+        boolean             hidePasswords;
+
+        void readExport(final JsonParser parser)
+                throws IOException, MPMarshalException {
+
+            hasExport = true;
+            if (nextObject( parser ))
+                while (nextField( parser )) {
+                    if ("redacted".equals( parser.getCurrentName() ))
+                        redacted = parser.getValueAsBoolean();
+                    parser.skipChildren();
+                }
+        }
+
+        void readUser(final JsonParser parser)
+                throws IOException, MPMarshalException {
+
+            hasUser = true;
+            if (nextObject( parser ))
+                while (nextField( parser )) {
+                    switch (parser.getCurrentName()) {
+                        case "avatar":
+                            avatar = parser.getValueAsInt();
+                            break;
+                        case "full_name":
+                            fullName = parser.getValueAsString();
+                            break;
+                        case "last_used":
+                            lastUsed = instant( parser );
+                            break;
+                        case "key_id":
+                            keyID = parser.getValueAsString();
+                            break;
+                        case "algorithm":
+                            algorithm = algorithm( parser );
+                            break;
+                        case "_ext_mpw":
+                            if (nextObject( parser ))
+                                while (nextField( parser )) {
+                                    if ("default_type".equals( parser.getCurrentName() ))
+                                        defaultType = resultType( parser );
+                                    else if ("hide_passwords".equals( parser.getCurrentName() ))
+                                        hidePasswords = parser.getValueAsBoolean();
+                                    parser.skipChildren();
+                                }
+                            break;
+                    }
+
+                    parser.skipChildren();
+                }
+        }
+
+        MPFileUser toUser(final File file) {
+            return new MPFileUser(
+                    fullName, keyID, ifNotNullElse( algorithm, MPAlgorithm.Version.CURRENT ), avatar, defaultType,
+                    ifNotNullElse( lastUsed, new Instant() ), hidePasswords,
+                    redacted? MPMarshaller.ContentMode.PROTECTED: MPMarshaller.ContentMode.VISIBLE,
+                    MPMarshalFormat.JSON, file );
+        }
+    }
+
+
+    /**
+     * A site's question, kept until its site has been read.
+     */
+    private static final class Question {
+
+        @Nullable
+        MPResultType type;
+        @Nullable
+        String       answer;
+
+        Question(final JsonParser parser)
+                throws IOException, MPMarshalException {
+
+            if (nextObject( parser ))
+                while (nextField( parser )) {
+                    if ("type".equals( parser.getCurrentName() ))
+                        type = resultType( parser );
+                    else if ("answer".equals( parser.getCurrentName() ))
+                        answer = parser.getValueAsString();
+                    parser.skipChildren();
+                }
         }
     }
 }
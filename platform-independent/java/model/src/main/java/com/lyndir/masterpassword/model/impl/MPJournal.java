@@ -0,0 +1,253 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+package com.lyndir.masterpassword.model.impl;
+
+import com.google.common.base.Charsets;
+import com.lyndir.lhunath.opal.system.logging.Logger;
+import com.lyndir.masterpassword.model.MPModelConstants;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+import javax.annotation.Nullable;
+import org.joda.time.ReadableInstant;
+
+
+/**
+ * Records the uses of a user's sites in a journal beside the user's file, so that using a site doesn't need the whole file to be
+ * written out.
+ *
+ * <p>The journal holds one record per line, for each use of a site, with the site's new usage rather than the difference.  Only
+ * uses are journaled: other clients only read the user's file, and missing a few uses doesn't change the passwords they produce.
+ * The first line identifies the version of the user's file that the journal applies to, a journal for any other version is
+ * ignored.  Once the journal grows past a quarter of the user's file, or once the user is signed out, it is compacted: the user's
+ * file is written out in full and the journal is deleted.</p>
+ *
+ * @author lhunath, 2026-10-18
+ */
+final class MPJournal {
+
+    private static final Logger logger         = Logger.get( MPJournal.class );
+    private static final String suffix         = ".journal";
+    private static final long   minCompactSize = 16 * 1024;
+
+    private MPJournal() {
+    }
+
+    @Nullable
+    static String use(final MPFileSite site) {
+        return record( site, "use", String.valueOf( site.getUses() ),
+                       MPModelConstants.dateTimeFormatter.print( site.getLastUsed() ) );
+    }
+
+    /**
+     * @return {@code null} if the site's name can't be recorded.
+     */
+    @Nullable
+    private static String record(final MPFileSite site, final String... fields) {
+        // The site name is the last field of a record, so it may hold tabs, but it must fit on the record's line.
+        if ((site.getSiteName().indexOf( '\n' ) >= 0) || (site.getSiteName().indexOf( '\r' ) >= 0))
+            return null;
+
+        StringBuilder record = new StringBuilder();
+        for (final String field : fields)
+            record.append( field ).append( '\t' );
+
+        return record.append( site.getSiteName() ).toString();
+    }
+
+    /**
+     * Append records to the user's journal.
+     *
+     * @return {@code false} if the records were not appended, because the journal should be compacted into the user's file instead.
+     */
+    static boolean append(final MPFileUser user, final Collection<String> records)
+            throws IOException {
+        File file = user.getFile(), journal = fileOf( file );
+        if (!file.exists())
+            return false;
+        if (records.isEmpty())
+            return true;
+
+        // A journal for another version of the user's file is replaced when the file is written out.
+        String header = header( file );
+        if (journal.exists() && !header.equals( readHeader( journal ) ))
+            return false;
+
+        StringBuilder content = new StringBuilder();
+        if (!journal.exists())
+            content.append( header ).append( '\n' );
+        for (final String record : records)
+            content.append( record ).append( '\n' );
+
+        byte[] bytes = content.toString().getBytes( Charsets.UTF_8 );
+        if ((journal.length() + bytes.length) > Math.max( minCompactSize, file.length() / 4 ))
+            return false;
+
+        if (!journal.exists())
+            // The journal names the user's sites, so it is as private as the user's file from the moment it exists.
+            try {
+                Files.createFile( journal.toPath(),
+                                  PosixFilePermissions.asFileAttribute( Files.getPosixFilePermissions( file.toPath() ) ) );
+            }
+            catch (final UnsupportedOperationException ignored) {
+                Files.createFile( journal.toPath() );
+            }
+
+        try (FileChannel channel = FileChannel.open( journal.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND )) {
+            ByteBuffer buffer = ByteBuffer.wrap( bytes );
+            while (buffer.hasRemaining())
+                channel.write( buffer );
+            channel.force( false );
+        }
+
+        return true;
+    }
+
+    /**
+     * Apply the records of the user's journal to the user's sites.
+     */
+    static void replay(final MPFileUser user)
+            throws IOException {
+        List<String> records = records( user.getFile() );
+        if (records == null) {
+            logger.wrn( "Ignoring journal that doesn't belong to the current version of: %s", user.getFile() );
+            return;
+        }
+
+        apply( user, records );
+    }
+
+    /**
+     * Apply records to the user's sites directly, without recording them as changes to the user.
+     *
+     * @return The time of the last use that the records hold, or {@code null} if they hold none.
+     */
+    @Nullable
+    static ReadableInstant apply(final MPFileUser user, final Collection<String> records) {
+        Map<String, MPFileSite> sitesByName = new HashMap<>();
+        for (final MPFileSite site : user.getSites())
+            sitesByName.put( site.getSiteName(), site );
+
+        ReadableInstant lastUsed = null;
+        for (final String record : records)
+            try {
+                if (!record.startsWith( "use\t" )) {
+                    logger.wrn( "Skipping unknown journal record: %s", record );
+                    continue;
+                }
+
+                String[]   fields = record.split( "\t", 4 );
+                MPFileSite site   = sitesByName.get( fields[3] );
+                if (site != null) {
+                    // The site is re-added to keep the user's sites in order of use.
+                    user.deleteSite( site, false );
+                    site.setUsage( Integer.parseInt( fields[1] ),
+                                   MPModelConstants.dateTimeFormatter.parseDateTime( fields[2] ).toInstant() );
+                    user.addSite( site, false );
+
+                    if ((lastUsed == null) || site.getLastUsed().isAfter( lastUsed ))
+                        lastUsed = site.getLastUsed();
+                }
+            }
+            catch (final RuntimeException e) {
+                logger.wrn( e, "Skipping journal record: %s", record );
+            }
+
+        return lastUsed;
+    }
+
+    /**
+     * The user's file only records when the user was last used as of when it was written, their journal records their uses since.
+     *
+     * @return The time of the last use that the journal of the user's file records, or {@code null} if it records none.
+     */
+    @Nullable
+    static ReadableInstant lastUsed(final File file)
+            throws IOException {
+        List<String> records = records( file );
+        if (records == null)
+            return null;
+
+        ReadableInstant lastUsed = null;
+        for (final String record : records)
+            if (record.startsWith( "use\t" ))
+                try {
+                    lastUsed = MPModelConstants.dateTimeFormatter.parseDateTime( record.split( "\t", 4 )[2] ).toInstant();
+                }
+                catch (final RuntimeException e) {
+                    logger.wrn( e, "Skipping journal record: %s", record );
+                }
+
+        return lastUsed;
+    }
+
+    /**
+     * @return The records of the journal of the user's file, or {@code null} if the journal belongs to another version of the file.
+     */
+    @Nullable
+    private static List<String> records(final File file)
+            throws IOException {
+        File journal = fileOf( file );
+        if (!journal.exists())
+            return Collections.emptyList();
+
+        // Only whole lines are records: a line that was cut off while being written has no line end.
+        List<String> lines = Arrays.asList( new String( Files.readAllBytes( journal.toPath() ), Charsets.UTF_8 ).split( "\n", -1 ) );
+        if (!header( file ).equals( lines.get( 0 ) ))
+            return null;
+
+        return lines.subList( 1, Math.max( 1, lines.size() - 1 ) );
+    }
+
+    static void delete(final MPFileUser user) {
+        File journal = fileOf( user.getFile() );
+        if (journal.exists() && !journal.delete())
+            logger.wrn( "Couldn't delete journal: %s", journal );
+    }
+
+    static File fileOf(final File file) {
+        return new File( file.getPath() + suffix );
+    }
+
+    /**
+     * @return The user file that the given journal belongs to, or {@code null} if it isn't a journal.
+     */
+    @Nullable
+    static File userFileOf(final File journal) {
+        String path = journal.getPath();
+
+        return path.endsWith( suffix )? new File( path.substring( 0, path.length() - suffix.length() ) ): null;
+    }
+
+    private static String header(final File file) {
+        return "## " + file.length() + ' ' + file.lastModified();
+    }
+
+    @Nullable
+    private static String readHeader(final File journal)
+            throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader( journal.toPath(), Charsets.UTF_8 )) {
+            return reader.readLine();
+        }
+    }
+}
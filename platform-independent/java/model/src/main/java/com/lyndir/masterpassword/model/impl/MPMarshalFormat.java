@@ -19,6 +19,7 @@
 package com.lyndir.masterpassword.model.impl;
 
 import java.io.File;
+import javax.annotation.Nullable;
 
 
 /**
@@ -65,6 +66,26 @@ public enum MPMarshalFormat {
         public String fileSuffix() {
             return ".mpsites.json";
         }
+    },
+
+    /**
+     * Marshal using the compact binary format.
+     */
+    Binary {
+        @Override
+        public MPMarshaller marshaller() {
+            return new MPBinaryMarshaller();
+        }
+
+        @Override
+        public MPUnmarshaller unmarshaller() {
+            return new MPBinaryUnmarshaller();
+        }
+
+        @Override
+        public String fileSuffix() {
+            return ".mpsites.bin";
+        }
     };
 
     public static final MPMarshalFormat DEFAULT = JSON;
@@ -79,4 +100,16 @@ public enum MPMarshalFormat {
     public boolean matches(final File file) {
         return file.getName().endsWith( fileSuffix() );
     }
+
+    /**
+     * @return The format of the given user file, or {@code null} if it isn't one.
+     */
+    @Nullable
+    public static MPMarshalFormat forFile(final File file) {
+        for (final MPMarshalFormat format : values())
+            if (format.matches( file ))
+                return format;
+
+        return null;
+    }
 }
@@ -0,0 +1,102 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+package com.lyndir.masterpassword.model.impl;
+
+import static com.lyndir.lhunath.opal.system.util.ObjectUtils.*;
+
+import com.google.common.primitives.UnsignedInteger;
+import com.lyndir.masterpassword.*;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+
+
+/**
+ * Content read in the clear from a visible file, which is encrypted into its state once the state is needed, or once the user
+ * gets around to it in the background, see {@link MPFileSite#encryptPendingStates()}.
+ *
+ * <p>The state is encrypted with the algorithm, counter and type the content was read with, so that it is the same as if it had
+ * been encrypted while reading.  The clear content is wiped as soon as it is encrypted.</p>
+ *
+ * @author lhunath, 2026-10-18
+ */
+final class MPPendingState {
+
+    private final MPFileSite      site;
+    private final MPAlgorithm     algorithm;
+    private final UnsignedInteger counter;
+    private final MPKeyPurpose    keyPurpose;
+    @Nullable
+    private final String          keyContext;
+    private final MPResultType    type;
+    @Nullable
+    private       char[]          content;
+    @Nullable
+    private       String          state;
+
+    MPPendingState(final MPFileSite site, final MPKeyPurpose keyPurpose, @Nullable final String keyContext,
+                   @Nullable final UnsignedInteger counter, final MPResultType type, final String content) {
+        this.site = site;
+        this.algorithm = site.getAlgorithm();
+        this.counter = ifNotNullElse( counter, algorithm.mpw_default_counter() );
+        this.keyPurpose = keyPurpose;
+        this.keyContext = keyContext;
+        this.type = type;
+        this.content = content.toCharArray();
+    }
+
+    synchronized String encrypt()
+            throws MPKeyUnavailableException, MPAlgorithmException {
+
+        if (state == null) {
+            if (content == null)
+                throw new MPKeyUnavailableException( "Content was wiped before it could be encrypted." );
+
+            state = site.getUser().getMasterKey().siteState(
+                    site.getSiteName(), algorithm, counter, keyPurpose, keyContext, type, new String( content ) );
+            wipe();
+        }
+
+        return state;
+    }
+
+    /**
+     * The content was replaced before it was encrypted: wipe it and stop tracking it.
+     */
+    void discard() {
+        wipe();
+        site.forgetPendingState( this );
+    }
+
+    /**
+     * @return {@code true} if the content was wiped before it was encrypted, so that there is no state to get from it.
+     */
+    synchronized boolean isLost() {
+        return (content == null) && (state == null);
+    }
+
+    /**
+     * Wipe the clear content from memory, if it wasn't encrypted yet it is lost.
+     */
+    synchronized void wipe() {
+        if (content != null) {
+            Arrays.fill( content, (char) 0 );
+            content = null;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+
+package com.lyndir.masterpassword.model.impl;
+
+import com.lyndir.masterpassword.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+
+/**
+ * Collects the clear-text results of a user's sites and derives them with one native call per algorithm version.
+ *
+ * @author lhunath, 2026-10-18
+ */
+final class MPResultBatch {
+
+    private final Map<MPAlgorithm.Version, List<MPAlgorithm.SiteRequest>> requestsByVersion  = new EnumMap<>( MPAlgorithm.Version.class );
+    private final Map<MPAlgorithm.Version, List<Consumer<String>>>        consumersByVersion = new EnumMap<>( MPAlgorithm.Version.class );
+    private final MPMasterKey                                             masterKey;
+
+    MPResultBatch(final MPMasterKey masterKey) {
+        this.masterKey = masterKey;
+    }
+
+    /**
+     * @see MPFileSite#getResult()
+     */
+    void requestResult(final MPFileSite site, final Consumer<String> resultConsumer)
+            throws MPKeyUnavailableException, MPAlgorithmException {
+        request( site.getAlgorithm(), new MPAlgorithm.SiteRequest(
+                site.getSiteName(), site.getCounter(), MPKeyPurpose.Authentication, null,
+                site.getResultType(), site.getResultState() ), resultConsumer );
+    }
+
+    /**
+     * @see MPFileSite#getLogin()
+     */
+    void requestLogin(final MPFileSite site, final Consumer<String> resultConsumer)
+            throws MPKeyUnavailableException, MPAlgorithmException {
+        request( site.getAlgorithm(), new MPAlgorithm.SiteRequest(
+                site.getSiteName(), site.getAlgorithm().mpw_default_counter(), MPKeyPurpose.Identification, null,
+                site.getLoginType(), site.getLoginState() ), resultConsumer );
+    }
+
+    /**
+     * @see MPFileQuestion#getAnswer()
+     */
+    void requestAnswer(final MPFileSite site, final MPFileQuestion question, final Consumer<String> resultConsumer)
+            throws MPKeyUnavailableException, MPAlgorithmException {
+        request( site.getAlgorithm(), new MPAlgorithm.SiteRequest(
+                site.getSiteName(), site.getAlgorithm().mpw_default_counter(), MPKeyPurpose.Recovery, question.getKeyword(),
+                question.getType(), question.getAnswerState() ), resultConsumer );
+    }
+
+    private void request(final MPAlgorithm algorithm, final MPAlgorithm.SiteRequest request, final Consumer<String> resultConsumer) {
+        requestsByVersion.computeIfAbsent( algorithm.version(), version -> new ArrayList<>() ).add( request );
+        consumersByVersion.computeIfAbsent( algorithm.version(), version -> new ArrayList<>() ).add( resultConsumer );
+    }
+
+    /**
+     * Derive all requested results and hand them to their consumers.
+     */
+    void derive()
+            throws MPKeyUnavailableException, MPAlgorithmException {
+        for (final Map.Entry<MPAlgorithm.Version, List<MPAlgorithm.SiteRequest>> requestsEntry : requestsByVersion.entrySet()) {
+            List<String>           results   = masterKey.siteResults( requestsEntry.getKey(), requestsEntry.getValue() );
+            List<Consumer<String>> consumers = consumersByVersion.get( requestsEntry.getKey() );
+            for (int r = 0; r < results.size(); ++r)
+                consumers.get( r ).accept( results.get( r ) );
+        }
+
+        requestsByVersion.clear();
+        consumersByVersion.clear();
+    }
+}
@@ -0,0 +1,164 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+package com.lyndir.masterpassword.model.impl;
+
+import com.lyndir.lhunath.opal.system.logging.Logger;
+import com.lyndir.masterpassword.model.MPConfig;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+
+/**
+ * Writes out the changes to users, coalescing the changes that follow each other closely into a single write.
+ *
+ * <p>A user is written once no new changes came in for {@link MPConfig#saveDelay()} milliseconds, but no later than
+ * {@link MPConfig#saveMaxDelay()} milliseconds after its first unwritten change.  All writes happen on one thread, one at a time.</p>
+ *
+ * @author lhunath, 2026-10-18
+ */
+public final class MPSaveScheduler {
+
+    private static final Logger          logger   = Logger.get( MPSaveScheduler.class );
+    private static final MPSaveScheduler instance = new MPSaveScheduler();
+
+    private final ScheduledExecutorService saveExecutor = Executors.newSingleThreadScheduledExecutor( runnable -> {
+        Thread thread = new Thread( runnable, "mpw-save" );
+        thread.setDaemon( true );
+        return thread;
+    } );
+    private final Map<MPFileUser, Save>    saves        = new HashMap<>();
+    private final AtomicLong               writes       = new AtomicLong();
+    private final AtomicLong               coalesced    = new AtomicLong();
+
+    public static MPSaveScheduler get() {
+        return instance;
+    }
+
+    private MPSaveScheduler() {
+    }
+
+    /**
+     * Write out the user once its changes have settled.
+     */
+    public synchronized void schedule(final MPFileUser user) {
+        long now = System.nanoTime();
+        Save save = saves.get( user );
+        if (save == null)
+            saves.put( user, save = new Save( user, now ) );
+        else {
+            save.task.cancel( false );
+            save.changes++;
+            coalesced.incrementAndGet();
+        }
+
+        long delay = Math.min( TimeUnit.MILLISECONDS.toNanos( MPConfig.get().saveDelay() ),
+                               save.since + TimeUnit.MILLISECONDS.toNanos( MPConfig.get().saveMaxDelay() ) - now );
+        save.task = saveExecutor.schedule( save, Math.max( 0, delay ), TimeUnit.NANOSECONDS );
+    }
+
+    /**
+     * Write out all changes that are still waiting, and wait for them to be written.
+     */
+    public void flush() {
+        flush( null );
+    }
+
+    /**
+     * Write out the changes to the user that are still waiting, and wait for them to be written.
+     *
+     * @param user The user to write out, or {@code null} to write out all users.
+     */
+    public void flush(@Nullable final MPFileUser user) {
+        Collection<Save> flushSaves;
+        synchronized (this) {
+            flushSaves = new ArrayList<>( (user == null)? saves.values(): Collections.singleton( saves.get( user ) ) );
+            flushSaves.remove( null );
+        }
+        if (flushSaves.isEmpty())
+            return;
+
+        try {
+            saveExecutor.submit( () -> {
+                for (final Save save : flushSaves) {
+                    save.task.cancel( false );
+                    save.run();
+                }
+            } ).get();
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.wrn( e, "Interrupted while writing out changes." );
+        }
+        catch (final ExecutionException e) {
+            logger.err( e, "While writing out changes." );
+        }
+    }
+
+    /**
+     * Drop the changes to the user that are still waiting, without writing them out.
+     */
+    synchronized void cancel(final MPFileUser user) {
+        Save save = saves.remove( user );
+        if (save != null)
+            save.task.cancel( false );
+    }
+
+    /**
+     * @return The amount of times that a user was written out.
+     */
+    public long getWrites() {
+        return writes.get();
+    }
+
+    /**
+     * @return The amount of changes that didn't need a write of their own, because they were written out with another change.
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    private final class Save implements Runnable {
+
+        private final MPFileUser user;
+        private final long       since;
+        private       int        changes = 1;
+        private       Future<?>  task;
+
+        Save(final MPFileUser user, final long since) {
+            this.user = user;
+            this.since = since;
+        }
+
+        @Override
+        public void run() {
+            synchronized (MPSaveScheduler.this) {
+                // Already written out by a flush.
+                if (!saves.remove( user, this ))
+                    return;
+            }
+
+            if (user.save()) {
+                writes.incrementAndGet();
+                logger.dbg( "Wrote out %d change(s) to: %s", changes, user );
+            }
+        }
+    }
+}
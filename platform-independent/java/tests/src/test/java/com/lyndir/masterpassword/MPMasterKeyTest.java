@@ -23,7 +23,8 @@ import static org.testng.Assert.*;
 import com.lyndir.lhunath.opal.system.CodeUtils;
 import com.lyndir.lhunath.opal.system.logging.Logger;
 import java.security.SecureRandom;
-import java.util.Random;
+import java.util.*;
+import java.util.concurrent.*;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -56,6 +57,10 @@ public class MPMasterKeyTest {
             assertTrue(
                     testCase.getKeyID().equalsIgnoreCase( masterKey.getKeyID( testCase.getAlgorithm() ) ),
                     "[testMasterKey] keyID mismatch for test case: " + testCase );
+            assertTrue(
+                    testCase.getKeyID().equalsIgnoreCase( testCase.getAlgorithm().toID( testCase.getAlgorithm().masterKey(
+                            testCase.getFullName(), testCase.getMasterPassword().toCharArray() ) ) ),
+                    "[testMasterKey] heap keyID mismatch for test case: " + testCase );
 
             // Test invalidation
             masterKey.invalidate();
@@ -95,6 +100,106 @@ public class MPMasterKeyTest {
         } );
     }
 
+    @Test
+    public void testSiteResults()
+            throws Exception {
+
+        testSuite.forEach( "testSiteResults", testCase -> {
+            char[]      masterPassword = testCase.getMasterPassword().toCharArray();
+            MPMasterKey masterKey      = new MPMasterKey( testCase.getFullName(), masterPassword );
+
+            // Test site results, surrounding the case with requests that yield no result or another result.
+            MPAlgorithm.SiteRequest request = new MPAlgorithm.SiteRequest(
+                    testCase.getSiteName(), testCase.getSiteCounter(), testCase.getKeyPurpose(), testCase.getKeyContext(),
+                    testCase.getResultType(), null );
+            MPAlgorithm.SiteRequest statelessRequest = new MPAlgorithm.SiteRequest(
+                    testCase.getSiteName(), testCase.getSiteCounter(), testCase.getKeyPurpose(), testCase.getKeyContext(),
+                    MPResultType.StoredPersonal, null );
+            MPAlgorithm.SiteRequest otherRequest = new MPAlgorithm.SiteRequest(
+                    testCase.getSiteName() + ".other", testCase.getSiteCounter(), MPKeyPurpose.Authentication, null,
+                    MPResultType.GeneratedLong, null );
+            List<String> results = masterKey.siteResults(
+                    testCase.getAlgorithm(), Arrays.asList( statelessRequest, request, otherRequest ) );
+
+            assertEquals(
+                    results,
+                    Arrays.asList( null, testCase.getResult(), masterKey.siteResult(
+                            otherRequest.getSiteName(), testCase.getAlgorithm(), otherRequest.getSiteCounter(),
+                            otherRequest.getKeyPurpose(), otherRequest.getKeyContext(), otherRequest.getResultType(), null ) ),
+                    "[testSiteResults] result mismatch for test case: " + testCase );
+
+            return true;
+        } );
+    }
+
+    @Test
+    public void testDeriveAsync()
+            throws Exception {
+
+        MPTests.Case    testCase  = testSuite.getTests().getDefaultCase();
+        MPAlgorithm     algorithm = MPAlgorithm.Version.CURRENT;
+        MPMasterKey     masterKey = new MPMasterKey( testCase.getFullName(), testCase.getMasterPassword().toCharArray() );
+        String          keyID     = algorithm.toID( algorithm.masterKey(
+                testCase.getFullName(), testCase.getMasterPassword().toCharArray() ) );
+        ExecutorService executor  = Executors.newFixedThreadPool( 4 );
+        try {
+            // Test concurrent requests for the same key, all sharing one derivation.
+            List<Future<String>> keyIDs = new ArrayList<>();
+            for (int t = 0; t < 4; ++t)
+                keyIDs.add( executor.submit( () -> masterKey.getKeyID( algorithm ) ) );
+            assertSame(
+                    masterKey.deriveAsync( algorithm, executor ).get(),
+                    masterKey,
+                    "[testDeriveAsync] derivation mismatch for test case: " + testCase );
+            for (final Future<String> concurrentKeyID : keyIDs)
+                assertEquals(
+                        concurrentKeyID.get(),
+                        keyID,
+                        "[testDeriveAsync] keyID mismatch for test case: " + testCase );
+
+            // Test deriving all versions at once.
+            masterKey.deriveAsync( Arrays.asList( MPAlgorithm.Version.values() ), executor ).get();
+            for (final MPAlgorithm.Version version : MPAlgorithm.Version.values())
+                assertEquals(
+                        masterKey.getKeyID( version ),
+                        version.toID( version.masterKey( testCase.getFullName(), testCase.getMasterPassword().toCharArray() ) ),
+                        "[testDeriveAsync] keyID mismatch for version " + version + " of test case: " + testCase );
+
+            // Test invalidation
+            masterKey.invalidate();
+            try {
+                masterKey.deriveAsync( algorithm, executor ).get();
+                fail( "[testDeriveAsync] invalidate ineffective for test case: " + testCase );
+            }
+            catch (final ExecutionException e) {
+                assertTrue( e.getCause() instanceof MPKeyUnavailableException,
+                            "[testDeriveAsync] unexpected failure for test case: " + testCase );
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testIsFor()
+            throws Exception {
+
+        MPTests.Case testCase  = testSuite.getTests().getDefaultCase();
+        MPMasterKey  masterKey = new MPMasterKey( testCase.getFullName(), "Aa".toCharArray() );
+
+        assertTrue( masterKey.isFor( "Aa".toCharArray() ), "[testIsFor] same password mismatch." );
+        // Same Arrays.hashCode.
+        assertFalse( masterKey.isFor( "BB".toCharArray() ), "[testIsFor] colliding password match." );
+        assertFalse( masterKey.isFor( "Aa ".toCharArray() ), "[testIsFor] longer password match." );
+        assertFalse( masterKey.isFor( new char[0] ), "[testIsFor] empty password match." );
+
+        // Test invalidation
+        masterKey.invalidate();
+        assertFalse( masterKey.isFor( "Aa".toCharArray() ), "[testIsFor] invalidated key match." );
+        assertFalse( masterKey.isFor( new char[]{ 0, 0 } ), "[testIsFor] wiped password match." );
+    }
+
     @Test
     public void testSiteState()
             throws Exception {
@@ -0,0 +1,124 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+package com.lyndir.masterpassword.model;
+
+import static org.testng.Assert.*;
+
+import com.lyndir.lhunath.opal.system.logging.Logger;
+import java.util.*;
+import java.util.stream.Collectors;
+import org.testng.annotations.*;
+
+
+/**
+ * Holds matching many keys in parallel chunks to the results of matching them in sequence.
+ *
+ * @author lhunath, 2026-10-18
+ */
+public class MPQueryIndexTest {
+
+    @SuppressWarnings("UnusedDeclaration")
+    private static final Logger   logger  = Logger.get( MPQueryIndexTest.class );
+    private static final String[] words   = { "mail", "bank", "shop", "cloud", "news", "games", "photo", "music" };
+    private static final String[] queries = { "m", "ma", "mai", "mail", "mail1", "mail12", "", "s", "sh", "shp", "zz", "n", "nws" };
+
+    // Small chunks, so that a few thousand keys are matched in many of them.
+    private static final int parallelThreshold = 64;
+
+    private int                  defaultParallelThreshold;
+    private List<String>         siteNames;
+    private MPQueryIndex<String> sequentialIndex;
+    private MPQueryIndex<String> parallelIndex;
+
+    @BeforeMethod
+    public void setUp() {
+        defaultParallelThreshold = MPQuery.parallelThreshold;
+
+        Random random = new Random( 0 );
+        siteNames = new ArrayList<>();
+        for (int s = 0; s < 5000; ++s)
+            siteNames.add( words[random.nextInt( words.length )] + s + '.' + words[random.nextInt( words.length )] );
+
+        sequentialIndex = new MPQueryIndex<>( siteName -> siteName );
+        parallelIndex = new MPQueryIndex<>( siteName -> siteName );
+        for (final String siteName : siteNames) {
+            sequentialIndex.add( siteName );
+            parallelIndex.add( siteName );
+        }
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        MPQuery.parallelThreshold = defaultParallelThreshold;
+    }
+
+    @Test
+    public void testFind()
+            throws Exception {
+
+        // Each query refines the one before it until the user starts over.
+        for (final String query : queries)
+            assertSameResults( query, "[testFind]", index -> index.find( new MPQuery( query ) ) );
+    }
+
+    @Test
+    public void testRank()
+            throws Exception {
+
+        for (final String query : queries)
+            assertSameResults( query, "[testRank]", index -> index.rank(
+                    new MPQuery( query ), (siteName, score) -> score, Comparator.naturalOrder(), 100 ) );
+    }
+
+    @Test
+    public void testFindAfterRemove()
+            throws Exception {
+
+        assertSameResults( "m", "[testFindAfterRemove]", index -> index.find( new MPQuery( "m" ) ) );
+
+        // Removing keys moves others into their slots.
+        for (int s = 0; s < siteNames.size(); s += 3) {
+            sequentialIndex.remove( siteNames.get( s ) );
+            parallelIndex.remove( siteNames.get( s ) );
+        }
+        for (final String query : queries)
+            assertSameResults( query, "[testFindAfterRemove]", index -> index.find( new MPQuery( query ) ) );
+    }
+
+    private void assertSameResults(final String query, final String test, final Search search) {
+        MPQuery.parallelThreshold = Integer.MAX_VALUE;
+        List<MPQuery.Result<String>> expected = search.search( sequentialIndex );
+        MPQuery.parallelThreshold = parallelThreshold;
+        List<MPQuery.Result<String>> actual = search.search( parallelIndex );
+
+        String message = test + " mismatch for query: " + query;
+        assertEquals( actual, expected, message );
+        assertEquals( scores( actual ), scores( expected ), message );
+    }
+
+    private static List<Integer> scores(final List<MPQuery.Result<String>> results) {
+        return results.stream().map( MPQuery.Result::getScore ).collect( Collectors.toList() );
+    }
+
+    @FunctionalInterface
+    private interface Search {
+
+        List<MPQuery.Result<String>> search(MPQueryIndex<String> index);
+    }
+}
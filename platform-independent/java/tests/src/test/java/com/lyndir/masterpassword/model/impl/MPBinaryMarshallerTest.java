@@ -0,0 +1,203 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+package com.lyndir.masterpassword.model.impl;
+
+import static org.testng.Assert.*;
+
+import com.google.common.primitives.UnsignedInteger;
+import com.lyndir.lhunath.opal.system.logging.Logger;
+import com.lyndir.masterpassword.MPResultType;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.*;
+
+
+/**
+ * @author lhunath, 2026-10-18
+ */
+public class MPBinaryMarshallerTest {
+
+    @SuppressWarnings("UnusedDeclaration")
+    private static final Logger logger         = Logger.get( MPBinaryMarshallerTest.class );
+    private static final String masterPassword = "banana colored duckling";
+
+    private File       path;
+    private MPFileUser user;
+
+    @BeforeMethod
+    public void setUp()
+            throws Exception {
+
+        path = Files.createTempDirectory( "mpw-binary" ).toFile();
+        File file = new File( path, "Robert Lee Mitchell.mpsites.json" );
+        try (InputStream resource = Thread.currentThread().getContextClassLoader().getResourceAsStream( "test.mpsites.json" )) {
+            Files.copy( resource, file.toPath() );
+        }
+
+        user = MPFileUser.load( file );
+        user.authenticate( masterPassword.toCharArray() );
+
+        MPFileSite site = user.addSite( "stored.example.com" );
+        site.setCounter( UnsignedInteger.valueOf( 42 ) );
+        site.setSitePassword( MPResultType.StoredPersonal, "correct horse battery staple" );
+        site.setLoginName( MPResultType.StoredPersonal, "robert@example.com" );
+        site.setUrl( "https://stored.example.com/login" );
+        site.addQuestion( "mother" ).setAnswer( MPResultType.StoredPersonal, "Jane" );
+        site.addQuestion( "" );
+        site.use();
+    }
+
+    @AfterMethod
+    public void tearDown()
+            throws Exception {
+
+        // Write out what is still waiting before the files are gone, rather than after.
+        Changeable.awaitChanges( 5, TimeUnit.SECONDS );
+        MPSaveScheduler.get().flush();
+        user.invalidate();
+
+        File[] files = path.listFiles();
+        if (files != null)
+            for (final File file : files)
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+        //noinspection ResultOfMethodCallIgnored
+        path.delete();
+    }
+
+    @Test
+    public void testRoundTripProtected()
+            throws Exception {
+
+        testRoundTrip( MPMarshaller.ContentMode.PROTECTED );
+    }
+
+    @Test
+    public void testRoundTripVisible()
+            throws Exception {
+
+        testRoundTrip( MPMarshaller.ContentMode.VISIBLE );
+    }
+
+    private void testRoundTrip(final MPMarshaller.ContentMode contentMode)
+            throws Exception {
+
+        user.setContentMode( contentMode );
+        user.migrateTo( MPMarshalFormat.Binary );
+        assertEquals( user.getFormat(), MPMarshalFormat.Binary, "[testRoundTrip] User wasn't migrated." );
+
+        MPFileUser readUser = MPFileUser.load( user.getFile() );
+        assertNotNull( readUser, "[testRoundTrip] Couldn't load the binary file." );
+        assertEquals( readUser.getFullName(), user.getFullName(), "[testRoundTrip] fullName mismatch." );
+        assertEquals( readUser.getKeyID(), user.getKeyID(), "[testRoundTrip] keyID mismatch." );
+        assertEquals( readUser.getAlgorithm().version(), user.getAlgorithm().version(), "[testRoundTrip] algorithm mismatch." );
+        assertEquals( readUser.getAvatar(), user.getAvatar(), "[testRoundTrip] avatar mismatch." );
+        assertEquals( readUser.getContentMode(), contentMode, "[testRoundTrip] contentMode mismatch." );
+
+        readUser.authenticate( masterPassword.toCharArray() );
+        assertEquals( readUser.getSites().size(), user.getSites().size(), "[testRoundTrip] site count mismatch." );
+        for (final MPFileSite site : user.getSites()) {
+            MPFileSite readSite = null;
+            for (final MPFileSite s : readUser.getSites())
+                if (s.getSiteName().equals( site.getSiteName() ))
+                    readSite = s;
+
+            String message = "[testRoundTrip] mismatch for site: " + site.getSiteName();
+            assertNotNull( readSite, message );
+            assertEquals( readSite.getAlgorithm().version(), site.getAlgorithm().version(), message );
+            assertEquals( readSite.getCounter(), site.getCounter(), message );
+            assertEquals( readSite.getResultType(), site.getResultType(), message );
+            assertEquals( readSite.getLoginType(), site.getLoginType(), message );
+            assertEquals( readSite.getUrl(), site.getUrl(), message );
+            assertEquals( readSite.getUses(), site.getUses(), message );
+            assertEquals( readSite.getLastUsed(), site.getLastUsed(), message );
+            assertEquals( readSite.getResult(), site.getResult(), message );
+            assertEquals( readSite.getLogin(), site.getLogin(), message );
+
+            assertEquals( readSite.getQuestions().size(), site.getQuestions().size(), message );
+            for (final MPFileQuestion question : site.getQuestions()) {
+                MPFileQuestion readQuestion = null;
+                for (final MPFileQuestion q : readSite.getQuestions())
+                    if (q.getKeyword().equals( question.getKeyword() ))
+                        readQuestion = q;
+
+                assertNotNull( readQuestion, message );
+                assertEquals( readQuestion.getType(), question.getType(), message );
+                assertEquals( readQuestion.getAnswer(), question.getAnswer(), message );
+            }
+        }
+
+        readUser.invalidate();
+    }
+
+    @Test
+    public void testReadUserHeaderOnly()
+            throws Exception {
+
+        user.migrateTo( MPMarshalFormat.Binary );
+        byte[] content = Files.readAllBytes( user.getFile().toPath() );
+        File   file    = new File( path, "header" + MPMarshalFormat.Binary.fileSuffix() );
+
+        // The magic and version, the header block's one byte length and the header block.
+        assertTrue( content[MPBinaryFile.magic.length + 1] >= 0, "[testReadUserHeaderOnly] Header block length isn't a single byte." );
+        Files.write( file.toPath(), Arrays.copyOf( content, MPBinaryFile.magic.length + 2 + content[MPBinaryFile.magic.length + 1] ) );
+
+        MPFileUser readUser = MPMarshalFormat.Binary.unmarshaller().readUser( file );
+        assertEquals( readUser.getFullName(), user.getFullName(), "[testReadUserHeaderOnly] fullName mismatch." );
+        assertEquals( readUser.getKeyID(), user.getKeyID(), "[testReadUserHeaderOnly] keyID mismatch." );
+    }
+
+    @Test
+    public void testCorrupt()
+            throws Exception {
+
+        user.migrateTo( MPMarshalFormat.Binary );
+        byte[] content = Files.readAllBytes( user.getFile().toPath() );
+        File   file    = new File( path, "corrupt" + MPMarshalFormat.Binary.fileSuffix() );
+
+        // Every truncation and every damaged byte must be either read or refused as a marshalling error.
+        for (int b = 0; b < content.length; ++b) {
+            assertReadable( file, Arrays.copyOf( content, b ), "truncated to " + b );
+
+            for (final int damage : new int[]{ 0x00, 0x7F, 0x80, 0xFF }) {
+                byte[] damaged = content.clone();
+                damaged[b] = (byte) damage;
+                assertReadable( file, damaged, "byte " + b + " set to " + damage );
+            }
+        }
+    }
+
+    private static void assertReadable(final File file, final byte[] content, final String damage)
+            throws Exception {
+
+        Files.write( file.toPath(), content );
+        MPUnmarshaller unmarshaller = MPMarshalFormat.Binary.unmarshaller();
+        try {
+            unmarshaller.readSites( unmarshaller.readUser( file ) );
+        }
+        catch (final MPMarshalException ignored) {
+        }
+        catch (final RuntimeException e) {
+            throw new AssertionError( "[testCorrupt] Unchecked exception for content " + damage, e );
+        }
+    }
+}
@@ -0,0 +1,147 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+package com.lyndir.masterpassword.model.impl;
+
+import static org.testng.Assert.*;
+
+import com.lyndir.lhunath.opal.system.logging.Logger;
+import com.lyndir.masterpassword.*;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.function.BooleanSupplier;
+import javax.annotation.Nullable;
+import org.joda.time.Instant;
+import org.testng.annotations.*;
+
+
+/**
+ * @author lhunath, 2026-10-18
+ */
+public class MPFileUserManagerTest {
+
+    @SuppressWarnings("UnusedDeclaration")
+    private static final Logger logger         = Logger.get( MPFileUserManagerTest.class );
+    private static final String fullName       = "Robert Lee Mitchell";
+    private static final String masterPassword = "banana colored duckling";
+
+    // Long enough for the watcher to see the change and for its burst of changes to settle.
+    private static final long timeout = 10000;
+
+    private File              path;
+    private MPFileUserManager manager;
+
+    @BeforeMethod
+    public void setUp()
+            throws Exception {
+
+        path = Files.createTempDirectory( "mpw-users" ).toFile();
+        write( "site.com" );
+
+        manager = MPFileUserManager.create( path );
+        manager.watch();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        manager.unwatch();
+
+        delete( path );
+    }
+
+    @Test
+    public void testRefresh()
+            throws Exception {
+
+        MPFileUser user = manager.getFiles().first();
+        user.authenticate( masterPassword.toCharArray() );
+        assertTrue( hasSite( user, "site.com" ), "[testRefresh] Missing site before the change." );
+
+        write( "site.com", "other.com" );
+
+        await( () -> hasSite( user, "other.com" ), "[testRefresh] User wasn't refreshed with the new site." );
+        assertSame( manager.getFiles().first(), user, "[testRefresh] User was replaced instead of refreshed." );
+        assertTrue( user.isMasterKeyAvailable(), "[testRefresh] User was signed out by the refresh." );
+    }
+
+    @Test
+    public void testDelete()
+            throws Exception {
+
+        MPFileUser user = manager.getFiles().first();
+        assertTrue( user.getFile().delete(), "[testDelete] Couldn't delete the user's file." );
+
+        await( () -> manager.getFiles().isEmpty(), "[testDelete] User wasn't removed with their file." );
+    }
+
+    /**
+     * Write out the user's file with the given sites, as another process would: elsewhere, then moved over the user's file.
+     */
+    private void write(final String... siteNames)
+            throws Exception {
+
+        File        otherPath = Files.createTempDirectory( "mpw-other" ).toFile();
+        MPMasterKey masterKey = new MPMasterKey( fullName, masterPassword.toCharArray() );
+        MPFileUser user = new MPFileUser( fullName, masterKey.getKeyID( MPAlgorithm.Version.CURRENT ), MPAlgorithm.Version.CURRENT, 0,
+                                          null, new Instant(), false, MPMarshaller.ContentMode.PROTECTED, MPMarshalFormat.DEFAULT,
+                                          otherPath );
+        user.authenticate( masterKey );
+        user.ignoreChanges();
+
+        for (final String siteName : siteNames)
+            user.addSite( siteName );
+
+        user.getFormat().marshaller().marshall( user );
+        masterKey.invalidate();
+
+        try {
+            Files.move( user.getFile().toPath(), new File( path, user.getFile().getName() ).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        finally {
+            delete( otherPath );
+        }
+    }
+
+    private static void delete(final File path) {
+        File[] files = path.listFiles();
+        if (files != null)
+            for (final File file : files)
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+        //noinspection ResultOfMethodCallIgnored
+        path.delete();
+    }
+
+    private static boolean hasSite(final MPFileUser user, final String siteName) {
+        for (final MPFileSite site : user.getSites())
+            if (site.getSiteName().equals( siteName ))
+                return true;
+
+        return false;
+    }
+
+    private static void await(final BooleanSupplier condition, @Nullable final String message)
+            throws InterruptedException {
+
+        for (long deadline = System.currentTimeMillis() + timeout; !condition.getAsBoolean(); Thread.sleep( 50 ))
+            if (System.currentTimeMillis() > deadline)
+                fail( message );
+    }
+}
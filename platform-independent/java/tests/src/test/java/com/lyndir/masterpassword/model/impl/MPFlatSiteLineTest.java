@@ -0,0 +1,188 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+package com.lyndir.masterpassword.model.impl;
+
+import static org.testng.Assert.*;
+
+import com.google.common.primitives.UnsignedInteger;
+import com.lyndir.lhunath.opal.system.logging.Logger;
+import com.lyndir.lhunath.opal.system.util.ConversionUtils;
+import com.lyndir.masterpassword.MPAlgorithm;
+import com.lyndir.masterpassword.model.MPModelConstants;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+import org.testng.annotations.Test;
+
+
+/**
+ * Holds {@link MPFlatSiteLine} to the regular expressions that the flat unmarshaller used to match site lines with.
+ *
+ * @author lhunath, 2026-10-18
+ */
+public class MPFlatSiteLineTest {
+
+    @SuppressWarnings("UnusedDeclaration")
+    private static final Logger    logger            = Logger.get( MPFlatSiteLineTest.class );
+    private static final Pattern[] unmarshallFormats = {
+            Pattern.compile( "^([^ ]+) +(\\d+) +(\\d+)(:\\d+)? +([^\t]+)\t(.*)" ),
+            Pattern.compile( "^([^ ]+) +(\\d+) +(\\d+)(:\\d+)?(:\\d+)? +([^\t]*)\t *([^\t]+)\t(.*)" ) };
+    private static final Pattern   colon             = Pattern.compile( ":" );
+    private static final String    refused           = "refused";
+
+    private static final String[] lines = {
+            // Well-formed
+            "2026-10-18T10:20:30Z 3 17 site.com\tpassword",
+            "2026-10-18T10:20:30Z 3 17:3 site.com\tpassword",
+            "2026-10-18T10:20:30Z 3 17:3:42 login\tsite.com\tpassword",
+            "2026-10-18T10:20:30Z 0 1056:2:1 robert@example.com\tmy site.com\tpass word ",
+            "2026-10-18T10:20:30+02:00 3 17:3 site.com\tpassword",
+            "2012-01-01T00:00:00Z 3 17:3 site.com\t",
+            // Names of only spaces
+            "2026-10-18T10:20:30Z 3 17:3  \tpassword",
+            "2026-10-18T10:20:30Z 3 17:3    \tpassword",
+            "2026-10-18T10:20:30Z 3 17:3:1 login\t \tpassword",
+            "2026-10-18T10:20:30Z 3 17:3:1 login\t   \tpassword",
+            "2026-10-18T10:20:30Z 3 17:3:1  \t   \tpassword",
+            "2026-10-18T10:20:30Z 3 17:3:1     \t\tpassword",
+            // Missing login fields
+            "2026-10-18T10:20:30Z 3 17:3:1 \tsite.com\tpassword",
+            "2026-10-18T10:20:30Z 3 17:3:1 site.com\tpassword",
+            "2026-10-18T10:20:30Z 3 17:3:1 \t  site.com\tpassword",
+            "2026-10-18T10:20:30Z 3 17:3:1 login\t\tpassword",
+            "2026-10-18T10:20:30Z 3 17:3:1 login\tsite.com",
+            // Extra tabs
+            "2026-10-18T10:20:30Z 3 17:3 site.com\tpass\tword",
+            "2026-10-18T10:20:30Z 3 17:3 site.com\t\t",
+            "2026-10-18T10:20:30Z 3 17:3 \tsite.com\tpassword",
+            "2026-10-18T10:20:30Z 3 17:3:1 login\tsite.com\tpass\tword",
+            "2026-10-18T10:20:30Z 3 17:3:1 login\t\tsite.com\tpassword",
+            "2026-10-18T10:20:30Z 3 17:3:1\tlogin\tsite.com\tpassword",
+            "2026-10-18T10:20:30Z\t3 17:3 site.com\tpassword",
+            // Spacing and numbers
+            "2026-10-18T10:20:30Z   3    17:3   site.com\tpassword",
+            "2026-10-18T10:20:30Z 3 17 :3 site.com\tpassword",
+            "2026-10-18T10:20:30Z 3 17: site.com\tpassword",
+            "2026-10-18T10:20:30Z 3 17:3: login\tsite.com\tpassword",
+            "2026-10-18T10:20:30Z 3 17:3:1:2 login\tsite.com\tpassword",
+            "2026-10-18T10:20:30Z 3x 17:3 site.com\tpassword",
+            "2026-10-18T10:20:30Z 99999999999 17:3 site.com\tpassword",
+            "2026-10-18T10:20:30Z 3 17:3:99999999999 login\tsite.com\tpassword",
+            "2026-10-18T10:20:30Z 3 17:9 site.com\tpassword",
+            " 3 17:3 site.com\tpassword",
+            "2026-10-18T10:20:30Z",
+            "",
+            // Dates
+            "2026-02-30T10:20:30Z 3 17:3 site.com\tpassword",
+            "2026-10-18T24:20:30Z 3 17:3 site.com\tpassword",
+            "2026-10-18 10:20:30Z 3 17:3 site.com\tpassword",
+            "yesterday 3 17:3 site.com\tpassword",
+    };
+
+    private static final String[] fragments = {
+            "2026-10-18T10:20:30Z", "2026-10-19T00:00:00Z", "2026-02-30T00:00:00Z", " ", " ", "  ", "\t", "\t", ":", "0", "3", "17",
+            "99999999999", "site.com", "x y", "é" };
+
+    @Test
+    public void testLines()
+            throws Exception {
+
+        for (final String line : lines)
+            for (int format = 0; format < unmarshallFormats.length; ++format)
+                assertParse( line, format );
+    }
+
+    @Test
+    public void testRandomLines()
+            throws Exception {
+
+        Random random = new Random( 0 );
+        for (int l = 0; l < 100000; ++l) {
+            StringBuilder line = new StringBuilder();
+
+            // Start half the lines the way site lines start, so that they get far enough to tell the parsers apart.
+            if (random.nextBoolean())
+                line.append( fragments[random.nextInt( 3 )] ).append( ' ' ).append( random.nextInt( 100 ) ).append( ' ' )
+                    .append( random.nextInt( 100 ) ).append( ':' ).append( random.nextInt( 4 ) );
+            for (int f = random.nextInt( 10 ); f > 0; --f)
+                line.append( fragments[random.nextInt( fragments.length )] );
+
+            for (int format = 0; format < unmarshallFormats.length; ++format)
+                assertParse( line.toString(), format );
+        }
+    }
+
+    private static void assertParse(final String line, final int format)
+            throws MPMarshalException {
+
+        String         expected = expected( line, format );
+        MPFlatSiteLine siteLine = new MPFlatSiteLine();
+        String         actual;
+        try {
+            actual = siteLine.parse( line, format )? describe(
+                    siteLine.lastUsed.getMillis(), siteLine.uses, siteLine.type, siteLine.algorithm, siteLine.counter,
+                    siteLine.loginName, siteLine.siteName, siteLine.sitePassword ): null;
+        }
+        catch (final RuntimeException ignored) {
+            actual = refused;
+        }
+
+        assertEquals( actual, expected, "[testParse] mismatch for format " + format + " line: " + line.replace( "\t", "\\t" ) );
+    }
+
+    /**
+     * Parse the line as the flat unmarshaller did before it had {@link MPFlatSiteLine}.
+     */
+    @Nullable
+    private static String expected(final String line, final int format) {
+        Matcher siteMatcher = unmarshallFormats[format].matcher( line );
+        if (!siteMatcher.matches())
+            return null;
+
+        try {
+            long lastUsed = MPModelConstants.dateTimeFormatter.parseDateTime( siteMatcher.group( 1 ) ).toInstant().getMillis();
+            int  uses     = ConversionUtils.toIntegerNN( siteMatcher.group( 2 ) );
+            int  type     = ConversionUtils.toIntegerNN( siteMatcher.group( 3 ) );
+            MPAlgorithm.Version algorithm = (siteMatcher.group( 4 ) == null)? null: MPAlgorithm.Version.fromInt(
+                    ConversionUtils.toIntegerNN( colon.matcher( siteMatcher.group( 4 ) ).replaceAll( "" ) ) );
+
+            if (format == 0)
+                return describe( lastUsed, uses, type, algorithm, null,
+                                 null, siteMatcher.group( 5 ), siteMatcher.group( 6 ) );
+
+            UnsignedInteger counter = (siteMatcher.group( 5 ) == null)? null: UnsignedInteger.valueOf(
+                    colon.matcher( siteMatcher.group( 5 ) ).replaceAll( "" ) );
+            return describe( lastUsed, uses, type, algorithm, counter,
+                             siteMatcher.group( 6 ), siteMatcher.group( 7 ), siteMatcher.group( 8 ) );
+        }
+        catch (final RuntimeException ignored) {
+            return refused;
+        }
+    }
+
+    private static String describe(final long lastUsed, final int uses, final int type, @Nullable final MPAlgorithm.Version algorithm,
+                                   @Nullable final UnsignedInteger counter, @Nullable final String loginName, final String siteName,
+                                   final String sitePassword) {
+
+        return String.join( "|", String.valueOf( lastUsed ), String.valueOf( uses ), String.valueOf( type ),
+                            String.valueOf( algorithm ), String.valueOf( counter ),
+                            String.valueOf( loginName ), siteName, sitePassword ).replace( "\t", "\\t" );
+    }
+}
@@ -0,0 +1,204 @@
+//==============================================================================
+// This file is part of Master Password.
+// Copyright (c) 2011-2017, Maarten Billemont.
+//
+// Master Password is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// Master Password is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+//
+// You can find a copy of the GNU General Public License in the
+// LICENSE file.  Alternatively, see <http://www.gnu.org/licenses/>.
+//==============================================================================
+
+package com.lyndir.masterpassword.model.impl;
+
+import static org.testng.Assert.*;
+
+import com.google.common.primitives.UnsignedInteger;
+import com.lyndir.lhunath.opal.system.logging.Logger;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.ReadableInstant;
+import org.testng.annotations.*;
+
+
+/**
+ * @author lhunath, 2026-10-18
+ */
+public class MPJournalTest {
+
+    @SuppressWarnings("UnusedDeclaration")
+    private static final Logger logger         = Logger.get( MPJournalTest.class );
+    private static final String masterPassword = "banana colored duckling";
+    private static final String siteName       = "masterpasswordapp.com";
+
+    private File       path;
+    private File       file;
+    private MPFileUser user;
+
+    @BeforeMethod
+    public void setUp()
+            throws Exception {
+
+        path = Files.createTempDirectory( "mpw-journal" ).toFile();
+        file = new File( path, "Robert Lee Mitchell.mpsites.json" );
+        try (InputStream resource = Thread.currentThread().getContextClassLoader().getResourceAsStream( "test.mpsites.json" )) {
+            Files.copy( resource, file.toPath() );
+        }
+
+        user = MPFileUser.load( file );
+        user.authenticate( masterPassword.toCharArray() );
+    }
+
+    @AfterMethod
+    public void tearDown()
+            throws Exception {
+
+        save();
+        user.invalidate();
+
+        File[] files = path.listFiles();
+        if (files != null)
+            for (final File file : files)
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+        //noinspection ResultOfMethodCallIgnored
+        path.delete();
+    }
+
+    @Test
+    public void testReplay()
+            throws Exception {
+
+        byte[]     content = Files.readAllBytes( file.toPath() );
+        MPFileSite site    = site( user );
+        site.use();
+        site.use();
+        save();
+
+        assertTrue( MPJournal.fileOf( file ).exists(), "[testReplay] Uses weren't journaled." );
+        assertEquals( Files.readAllBytes( file.toPath() ), content, "[testReplay] Uses rewrote the user's file." );
+
+        MPFileUser readUser = read();
+        assertEquals( seconds( readUser.getLastUsed() ), seconds( site.getLastUsed() ), "[testReplay] User's last use mismatch." );
+        MPFileSite readSite = site( readUser );
+        assertEquals( readSite.getUses(), site.getUses(), "[testReplay] Site's uses mismatch." );
+        assertEquals( seconds( readSite.getLastUsed() ), seconds( site.getLastUsed() ), "[testReplay] Site's last use mismatch." );
+        assertSame( readUser.getSites().iterator().next(), readSite, "[testReplay] Used site isn't first." );
+        readUser.invalidate();
+    }
+
+    @Test
+    public void testRewrite()
+            throws Exception {
+
+        site( user ).use();
+        save();
+        assertTrue( MPJournal.fileOf( file ).exists(), "[testRewrite] Use wasn't journaled." );
+
+        // Other clients only read the user's file, changes to the passwords must be in it.
+        site( user ).setCounter( UnsignedInteger.valueOf( 42 ) );
+        save();
+        assertFalse( MPJournal.fileOf( file ).exists(), "[testRewrite] Counter change didn't rewrite the user's file." );
+
+        MPFileUser readUser = read();
+        assertEquals( site( readUser ).getCounter(), UnsignedInteger.valueOf( 42 ), "[testRewrite] Counter mismatch." );
+        assertEquals( site( readUser ).getUses(), site( user ).getUses(), "[testRewrite] Uses mismatch." );
+        readUser.invalidate();
+    }
+
+    @Test
+    public void testHeaderMismatch()
+            throws Exception {
+
+        int uses = site( user ).getUses();
+        site( user ).use();
+        save();
+        assertTrue( MPJournal.fileOf( file ).exists(), "[testHeaderMismatch] Use wasn't journaled." );
+
+        // Another client rewrites the user's file, the journal is for the file as it was.
+        Files.write( file.toPath(), "\n".getBytes(), StandardOpenOption.APPEND );
+
+        MPFileUser readUser = read();
+        assertEquals( site( readUser ).getUses(), uses, "[testHeaderMismatch] Journal of another file was replayed." );
+        readUser.invalidate();
+    }
+
+    @Test
+    public void testCompaction()
+            throws Exception {
+
+        MPFileSite site = site( user );
+        site.use();
+        save();
+        assertTrue( MPJournal.fileOf( file ).exists(), "[testCompaction] Use wasn't journaled." );
+
+        user.invalidate();
+        assertFalse( MPJournal.fileOf( file ).exists(), "[testCompaction] Journal wasn't compacted on sign-out." );
+
+        MPFileUser readUser = read();
+        assertEquals( site( readUser ).getUses(), site.getUses(), "[testCompaction] Uses weren't written to the user's file." );
+        readUser.invalidate();
+    }
+
+    @Test
+    public void testCutOff()
+            throws Exception {
+
+        MPFileSite site = site( user );
+        site.use();
+        save();
+        int uses = site.getUses();
+        site.use();
+        save();
+
+        // The last record was cut off while it was being written.
+        File   journal = MPJournal.fileOf( file );
+        byte[] content = Files.readAllBytes( journal.toPath() );
+        Files.write( journal.toPath(), Arrays.copyOf( content, content.length - 1 ) );
+
+        MPFileUser readUser = read();
+        assertEquals( site( readUser ).getUses(), uses, "[testCutOff] Cut off record was replayed." );
+        readUser.invalidate();
+    }
+
+    private static void save()
+            throws InterruptedException {
+
+        Changeable.awaitChanges( 5, TimeUnit.SECONDS );
+        MPSaveScheduler.get().flush();
+    }
+
+    private MPFileUser read()
+            throws Exception {
+
+        MPFileUser readUser = MPFileUser.load( file );
+        assertNotNull( readUser, "Couldn't read user: " + file );
+        readUser.authenticate( masterPassword.toCharArray() );
+
+        return readUser;
+    }
+
+    private static MPFileSite site(final MPFileUser user) {
+        for (final MPFileSite site : user.getSites())
+            if (site.getSiteName().equals( siteName ))
+                return site;
+
+        throw new AssertionError( "Missing site: " + siteName );
+    }
+
+    // The user's file and journal record times to the second.
+    private static long seconds(final ReadableInstant instant) {
+        return instant.getMillis() / 1000;
+    }
+}